@@ -0,0 +1,23 @@
+package com.sshtools.jaul.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks (or those selected by the usual JMH command line
+ * options), always with the GC profiler so allocation rate per operation
+ * (<code>gc.alloc.rate.norm</code>) is reported alongside time.
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws Exception {
+		var cmd = new CommandLineOptions(args);
+		var opts = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+		if (cmd.getIncludes().isEmpty()) {
+			opts.include(Benchmarks.class.getPackage().getName() + ".*");
+		}
+		new Runner(opts.build()).run();
+	}
+}
@@ -0,0 +1,103 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+
+/**
+ * Host platform detection, and classification of file names by media type, OS
+ * and architecture. The <code>recompiled</code> variants use
+ * {@link String#matches(String)} as the descriptor parser used to, for
+ * comparison with the precompiled patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationBenchmark {
+
+	private final static MediaType[] TYPES = MediaType.values();
+	private final static MediaOS[] OSES = MediaOS.values();
+	private final static MediaArch[] ARCHES = MediaArch.values();
+
+	private String[] names;
+
+	@Setup
+	public void setup() {
+		names = Descriptors.fileNames(12);
+	}
+
+	@Benchmark
+	public MediaOS mediaOs() {
+		return MediaOS.get();
+	}
+
+	@Benchmark
+	public MediaArch mediaArch() {
+		return MediaArch.get();
+	}
+
+	@Benchmark
+	public void classifyPrecompiled(Blackhole bh) {
+		for (var name : names) {
+			for (var type : TYPES) {
+				if (type.matches(name)) {
+					bh.consume(type);
+					break;
+				}
+			}
+			for (var os : OSES) {
+				if (os.matches(name)) {
+					bh.consume(os);
+					break;
+				}
+			}
+			for (var arch : ARCHES) {
+				if (arch.matches(name)) {
+					bh.consume(arch);
+					break;
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void classifyRecompiled(Blackhole bh) {
+		for (var name : names) {
+			for (var type : TYPES) {
+				if (name.matches(type.pattern())) {
+					bh.consume(type);
+					break;
+				}
+			}
+			for (var os : OSES) {
+				if (name.matches(os.pattern())) {
+					bh.consume(os);
+					break;
+				}
+			}
+			for (var arch : ARCHES) {
+				if (name.matches(arch.pattern())) {
+					bh.consume(arch);
+					break;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.jaul.BinaryDescriptor;
+import com.sshtools.jaul.UpdateDescriptor;
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+
+/**
+ * Decoding a whole descriptor, from XML and from the binary format, with and
+ * without a wanted {@link MediaKey}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescriptorBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int entries;
+
+	private byte[] xml;
+	private byte[] bin;
+	private MediaKey key;
+
+	@Setup
+	public void setup() {
+		xml = Descriptors.xml(entries);
+		bin = Descriptors.binary(entries);
+		/* Last platform to appear in the descriptor, so a keyed parse can't stop early */
+		key = new MediaKey(MediaOS.MACOS, MediaArch.AARCH64, MediaType.INSTALLER, null);
+	}
+
+	@Benchmark
+	public UpdateDescriptor parseXml() throws IOException {
+		return new UpdateDescriptor(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public UpdateDescriptor parseXmlForKey() throws IOException {
+		return new UpdateDescriptor(new ByteArrayInputStream(xml), key);
+	}
+
+	@Benchmark
+	public UpdateDescriptor readBinary() throws IOException {
+		return BinaryDescriptor.read(new ByteArrayInputStream(bin));
+	}
+
+	@Benchmark
+	public UpdateDescriptor readBinaryForKey() throws IOException {
+		return BinaryDescriptor.read(new ByteArrayInputStream(bin), key);
+	}
+}
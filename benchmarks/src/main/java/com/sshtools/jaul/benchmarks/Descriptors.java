@@ -0,0 +1,173 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sshtools.jaul.BinaryDescriptor;
+import com.sshtools.jaul.UpdateDescriptor;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+
+/**
+ * Generates synthetic descriptors in memory, so the benchmarks need no network
+ * or files. Entries cycle through a typical spread of platforms and media
+ * types, each with a distinct version so file names are unique.
+ */
+final class Descriptors {
+
+	private final static String BASE_URL = "https://example.com/downloads/myapp/";
+
+	/* file name prefix (after app name), suffix and bundled JRE */
+	private final static String[][] PLATFORMS = {
+			{ "linux-x64", ".sh", "linux-amd64-17" },
+			{ "linux-aarch64", ".sh", "linux-aarch64-17" },
+			{ "linux-x64", ".tar.gz", "linux-amd64-17" },
+			{ "linux-arm", ".tgz", "linux-arm32-17" },
+			{ "windows-x64", ".exe", "windows-x64-17" },
+			{ "windows-x86", ".msi", "windows-x86-17" },
+			{ "windows-x64", ".zip", "windows-x64-17" },
+			{ "macos-x64", ".dmg", "macos-amd64-17" },
+			{ "macos-aarch64", ".dmg", "macos-aarch64-17" },
+			{ "unix", ".tar.gz", "" },
+			{ "x86_64", ".rpm", "linux-amd64-17" },
+			{ "amd64", ".deb", "linux-amd64-17" } };
+
+	static String[] fileNames(int entries) {
+		var names = new String[entries];
+		for (int i = 0; i < entries; i++) {
+			var platform = PLATFORMS[i % PLATFORMS.length];
+			names[i] = "myapp-" + platform[0] + "-" + version(i) + platform[1];
+		}
+		return names;
+	}
+
+	static byte[] xml(int entries) {
+		var names = fileNames(entries);
+		var xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<updateDescriptor baseUrl=\"").append(BASE_URL).append("\">\n");
+		for (int i = 0; i < entries; i++) {
+			var name = names[i];
+			xml.append("  <entry targetMediaFileId=\"").append(i).append("\" updatableVersionMin=\"\" updatableVersionMax=\"\"");
+			xml.append(" fileName=\"").append(name).append("\"");
+			xml.append(" newVersion=\"").append(version(i)).append("\"");
+			xml.append(" newMediaFileId=\"").append(i).append("\"");
+			xml.append(" fileSize=\"").append(fileSize(i)).append("\"");
+			xml.append(" md5Sum=\"").append(digest("MD5", name)).append("\"");
+			xml.append(" sha256Sum=\"").append(digest("SHA-256", name)).append("\"");
+			xml.append(" bundledJre=\"").append(PLATFORMS[i % PLATFORMS.length][2]).append("\"");
+			xml.append(" archive=\"false\" singleBundle=\"false\">\n");
+			xml.append("    <comment />\n");
+			xml.append("  </entry>\n");
+		}
+		xml.append("</updateDescriptor>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encode the same entries as {@link #xml(int)} in the layout documented on
+	 * {@link BinaryDescriptor}. This is done directly rather than by converting a
+	 * parsed descriptor, as parsing keeps only one entry per media key, and the
+	 * two formats should be decoding the same number of entries.
+	 */
+	static byte[] binary(int entries) {
+		try {
+			var names = fileNames(entries);
+			var strings = new LinkedHashMap<String, Integer>();
+			var baseUrl = intern(strings, BASE_URL);
+			var indexes = new ArrayList<int[]>();
+			for (int i = 0; i < entries; i++) {
+				var key = classify(names[i]);
+				indexes.add(new int[] { intern(strings, key.os().name()), intern(strings, key.arch().name()),
+						intern(strings, key.type().name()), intern(strings, key.variant()), intern(strings, names[i]),
+						intern(strings, version(i)) + 1 });
+			}
+
+			var bout = new ByteArrayOutputStream();
+			var out = new DataOutputStream(bout);
+			out.write(new byte[] { 'J', 'A', 'U', 'L' });
+			out.writeByte(BinaryDescriptor.VERSION);
+			writeVarLong(out, strings.size());
+			for (var str : strings.keySet()) {
+				var b = str.getBytes(StandardCharsets.UTF_8);
+				writeVarLong(out, b.length);
+				out.write(b);
+			}
+			writeVarLong(out, baseUrl);
+			/* No mirrors */
+			writeVarLong(out, 0);
+			writeVarLong(out, entries);
+			for (int i = 0; i < entries; i++) {
+				for (var idx : indexes.get(i)) {
+					writeVarLong(out, idx);
+				}
+				writeVarLong(out, fileSize(i));
+				writeHash(out, digest("MD5", names[i]));
+				writeHash(out, digest("SHA-256", names[i]));
+				writeVarLong(out, 0);
+			}
+			out.flush();
+			return bout.toByteArray();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	private static MediaKey classify(String name) throws IOException {
+		var xml = "<updateDescriptor baseUrl=\"" + BASE_URL + "\"><entry fileName=\"" + name
+				+ "\" fileSize=\"0\" bundledJre=\"\"/></updateDescriptor>";
+		var desc = new UpdateDescriptor(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		return desc.getMediaUrls().keySet().iterator().next();
+	}
+
+	private static int intern(Map<String, Integer> strings, String str) {
+		return strings.computeIfAbsent(str, k -> strings.size());
+	}
+
+	private static void writeHash(DataOutputStream out, String hex) throws IOException {
+		out.writeByte(hex.length() / 2);
+		for (int i = 0; i < hex.length(); i += 2) {
+			out.writeByte(Integer.parseInt(hex.substring(i, i + 2), 16));
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long val) throws IOException {
+		while ((val & ~0x7fL) != 0) {
+			out.writeByte((int) ((val & 0x7f) | 0x80));
+			val >>>= 7;
+		}
+		out.writeByte((int) val);
+	}
+
+	private static long fileSize(int i) {
+		return 50_000_000L + i * 1024L;
+	}
+
+	private static String version(int i) {
+		return "3." + (i / 100) + "." + (i % 100);
+	}
+
+	private static String digest(String algo, String text) {
+		try {
+			var hash = MessageDigest.getInstance(algo).digest(text.getBytes(StandardCharsets.UTF_8));
+			var hex = new StringBuilder();
+			for (var b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Descriptors() {
+	}
+}
@@ -0,0 +1,73 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.jaul.UpdateDescriptor;
+import com.sshtools.jaul.UpdateDescriptor.Media;
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+
+/**
+ * Media lookups against an already parsed descriptor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int entries;
+
+	private UpdateDescriptor descriptor;
+	private MediaKey variantless;
+	private MediaKey exact;
+	private MediaKey missing;
+
+	@Setup
+	public void setup() throws IOException {
+		descriptor = new UpdateDescriptor(new ByteArrayInputStream(Descriptors.xml(entries)));
+		variantless = new MediaKey(MediaOS.LINUX, MediaArch.X86_64, MediaType.INSTALLER, null);
+		exact = new MediaKey(MediaOS.WINDOWS, MediaArch.X86_64, MediaType.INSTALLER, "exe");
+		missing = new MediaKey(MediaOS.MACOS, MediaArch.ARM32, MediaType.RPM, null);
+	}
+
+	@Benchmark
+	public Optional<Media> findVariantless() {
+		return descriptor.find(variantless);
+	}
+
+	@Benchmark
+	public Optional<Media> findExact() {
+		return descriptor.find(exact);
+	}
+
+	@Benchmark
+	public Optional<Media> findMissing() {
+		return descriptor.find(missing);
+	}
+
+	@Benchmark
+	public Optional<Media> getMedia() {
+		return descriptor.getMedia();
+	}
+}
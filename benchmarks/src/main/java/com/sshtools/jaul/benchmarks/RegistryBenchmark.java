@@ -0,0 +1,119 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.jaul.AppRegistry;
+import com.sshtools.jaul.AppRegistry.App;
+
+/**
+ * Registry lookups with many registered apps, for each registry backend.
+ * Preferences and registry files are redirected to a temporary directory, so
+ * the real registry is untouched. This relies on the file based preferences
+ * used on Linux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+	@Param({ "200" })
+	private int apps;
+
+	@Param({ "preferences", "file" })
+	private String backend;
+
+	private Path tmp;
+	private AppRegistry registry;
+	private Path first;
+	private Path last;
+	private String lastId;
+
+	@Setup
+	public void setup() throws IOException {
+		tmp = Files.createTempDirectory("jaul-registry");
+		System.setProperty("java.util.prefs.userRoot", tmp.resolve("user").toString());
+		System.setProperty("java.util.prefs.systemRoot", tmp.resolve("system").toString());
+		Files.createDirectories(tmp.resolve("system").resolve(".systemPrefs"));
+		System.setProperty("jaul.registryBackend", backend);
+		System.setProperty("jaul.userRegistry", tmp.resolve("user.dat").toString());
+		System.setProperty("jaul.systemRegistry", tmp.resolve("system.dat").toString());
+
+		registry = AppRegistry.get();
+		for (int i = 0; i < apps; i++) {
+			var id = "com.acme.app" + i;
+			var dir = Files.createDirectories(tmp.resolve("apps").resolve(id));
+			Files.createDirectories(dir.resolve(".install4j"));
+			Files.createFile(dir.resolve(".install4j").resolve("i4jparams.conf"));
+			registry.getBackend().put(AppRegistry.Scope.USER, id,
+					Map.of("id", id, "appDir", dir.toString(), "launcherId", String.valueOf(i)));
+			if (i == 0)
+				first = dir;
+			last = dir;
+			lastId = id;
+		}
+		registry.getBackend().flush(AppRegistry.Scope.USER);
+		registry.refresh();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (var str = Files.walk(tmp)) {
+			str.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public App getByPathFirst() {
+		return registry.get(first);
+	}
+
+	@Benchmark
+	public App getByPathLast() {
+		return registry.get(last);
+	}
+
+	@Benchmark
+	public App getByIdLast() {
+		return registry.get(lastId);
+	}
+
+	/**
+	 * How {@link AppRegistry#get(Path)} used to work, resolving the real path of
+	 * every app until one matches.
+	 */
+	@Benchmark
+	public App scanByPathLast() throws IOException {
+		var real = last.toRealPath();
+		for (var app : registry.getApps()) {
+			if (real.equals(app.getDir().toRealPath()))
+				return app;
+		}
+		throw new IllegalStateException();
+	}
+
+	@Benchmark
+	public int getApps() {
+		return registry.getApps().size();
+	}
+}
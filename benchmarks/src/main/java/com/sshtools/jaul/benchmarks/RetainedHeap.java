@@ -0,0 +1,37 @@
+package com.sshtools.jaul.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import com.sshtools.jaul.BinaryDescriptor;
+import com.sshtools.jaul.UpdateDescriptor;
+
+/**
+ * Reports the heap retained by parsed descriptors, in total and per media
+ * entry, using JOL. Run with
+ * <code>java -cp target/benchmarks.jar com.sshtools.jaul.benchmarks.RetainedHeap</code>.
+ * Pass <code>-v</code> to also print the per-class breakdown.
+ */
+public class RetainedHeap {
+
+	public static void main(String[] args) throws IOException {
+		var verbose = args.length > 0 && args[0].equals("-v");
+		for (var entries : new int[] { 10, 100, 1000 }) {
+			var xml = new UpdateDescriptor(new ByteArrayInputStream(Descriptors.xml(entries)));
+			var bin = BinaryDescriptor.read(new ByteArrayInputStream(Descriptors.binary(entries)));
+			report("xml", entries, xml, verbose);
+			report("binary", entries, bin, verbose);
+		}
+	}
+
+	private static void report(String format, int entries, UpdateDescriptor descriptor, boolean verbose) {
+		var layout = GraphLayout.parseInstance(descriptor);
+		var media = descriptor.getMediaUrls().size();
+		System.out.format("%-6s %5d entries  %3d media  %8d bytes  %6d bytes/media%n", format, entries, media,
+				layout.totalSize(), layout.totalSize() / Math.max(1, media));
+		if (verbose)
+			System.out.println(layout.toFootprint());
+	}
+}
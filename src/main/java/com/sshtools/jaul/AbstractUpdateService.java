@@ -1,13 +1,14 @@
 package com.sshtools.jaul;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.DateFormat;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -15,7 +16,95 @@ import java.util.stream.Collectors;
 
 public abstract class AbstractUpdateService implements UpdateService {
 
-	private List<DownloadListener> downloadListeners = new ArrayList<>();
+	private final static long METERED_POLL = TimeUnit.MINUTES.toMillis(1);
+	private final static long METERED_CHECK = TimeUnit.SECONDS.toMillis(5);
+
+	/*
+	 * Downloads media for an available version on its own low priority thread.
+	 * Progress is used to keep checking the connection policy, and interrupts the
+	 * downloading thread to pause (when the connection becomes metered) or
+	 * cancel. The download resumes from where it stopped either way.
+	 */
+	private final class Prefetch implements Runnable {
+		private final String version;
+		private final Thread thread;
+		private volatile boolean cancelled;
+		private volatile boolean paused;
+		private volatile long lastChecked;
+
+		private Prefetch(String version) {
+			this.version = version;
+			thread = new Thread(this, "JaulPrefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!cancelled) {
+					if (connectionPolicy.isMetered()) {
+						if (!paused) {
+							Logging.info("Connection is metered, pausing prefetch of {0}.", version);
+							paused = true;
+						}
+						Thread.sleep(METERED_POLL);
+						continue;
+					}
+					if (paused) {
+						Logging.info("Connection is no longer metered, resuming prefetch of {0}.", version);
+						paused = false;
+					}
+					try {
+						Logging.info("Prefetching {0}.", version);
+						doPrefetch(version, (t, sz) -> checkStop());
+						Logging.info("Prefetched {0}.", version);
+						return;
+					} catch (InterruptedException | IOException e) {
+						if (cancelled || !paused)
+							throw e;
+						/* Paused, clear any interrupt that was not seen and wait */
+						Thread.interrupted();
+					}
+				}
+			} catch (InterruptedException | InterruptedIOException ie) {
+			} catch (Exception e) {
+				Logging.warn("Failed to prefetch {0}, it will be downloaded when updating. {1}", version,
+						e.getMessage());
+			} finally {
+				synchronized (AbstractUpdateService.this) {
+					if (prefetching == this)
+						prefetching = null;
+				}
+			}
+		}
+
+		private void checkStop() {
+			var now = System.currentTimeMillis();
+			if (!cancelled && !paused && now - lastChecked >= METERED_CHECK) {
+				lastChecked = now;
+				if (connectionPolicy.isMetered()) {
+					Logging.info("Connection is metered, pausing prefetch of {0}.", version);
+					paused = true;
+				}
+			}
+			if (cancelled || paused)
+				Thread.currentThread().interrupt();
+		}
+
+		private void cancel() {
+			cancelled = true;
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final List<DownloadListener> downloadListeners = new CopyOnWriteArrayList<>();
+	private final DownloadEventDispatcher dispatcher = new DownloadEventDispatcher(this::deliverDownload);
 	private boolean updating;
 	private String availableVersion;
 	private ScheduledFuture<?> checkTask;
@@ -24,6 +113,10 @@ public abstract class AbstractUpdateService implements UpdateService {
 	private Optional<Consumer<String>> onAvailableVersion = Optional.empty();
 	private Optional<Consumer<Boolean>> onBusy = Optional.empty();
 	private boolean checkOnly;
+	private boolean prefetch;
+	private ConnectionPolicy connectionPolicy = () -> false;
+	private Prefetch prefetching;
+	private final RateLimiter rateLimiter = new RateLimiter();
 	
 	protected AbstractUpdateService(UpdateableAppContext context) {
 		this.context = context;
@@ -104,6 +197,53 @@ public abstract class AbstractUpdateService implements UpdateService {
 	
 	@Override
 	public void shutdown() {
+		cancelPrefetch();
+		dispatcher.close();
+	}
+
+	@Override
+	public final long getDownloadRate() {
+		return rateLimiter.getRate();
+	}
+
+	@Override
+	public final void setDownloadRate(long downloadRate) {
+		rateLimiter.setRate(downloadRate);
+	}
+
+	@Override
+	public final boolean isPrefetch() {
+		return prefetch;
+	}
+
+	@Override
+	public final void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		if (!prefetch)
+			cancelPrefetch();
+	}
+
+	@Override
+	public final void setConnectionPolicy(ConnectionPolicy connectionPolicy) {
+		this.connectionPolicy = connectionPolicy;
+	}
+
+	@Override
+	public final synchronized boolean isPrefetching() {
+		return prefetching != null;
+	}
+
+	@Override
+	public final void cancelPrefetch() {
+		Prefetch p;
+		synchronized (this) {
+			p = prefetching;
+			prefetching = null;
+		}
+		if (p != null) {
+			Logging.info("Cancelling prefetch of {0}.", p.version);
+			p.cancel();
+		}
 	}
 	
 	@Override
@@ -152,10 +292,39 @@ public abstract class AbstractUpdateService implements UpdateService {
 
 	protected abstract String doUpdate(boolean check) throws IOException;
 
+	/**
+	 * Download the media for the given version into the {@link DownloadCache},
+	 * without installing it. Called on a background thread when
+	 * {@link #isPrefetch()} is set and a check finds an update. The default
+	 * implementation does nothing.
+	 *
+	 * @param version  version found by the last check
+	 * @param progress must be passed to the download, it may interrupt the
+	 *                 calling thread to pause or cancel
+	 * @throws IOException          on error
+	 * @throws InterruptedException if paused or cancelled
+	 */
+	protected void doPrefetch(String version, Downloader.Progress progress) throws IOException, InterruptedException {
+	}
+
+	/**
+	 * Queue an event for delivery to all listeners. Listeners are called on a
+	 * separate thread, with progress events coalesced, see
+	 * {@link DownloadEventDispatcher}.
+	 *
+	 * @param event event
+	 */
 	protected final void fireDownload(DownloadEvent event) {
-		for (int i = downloadListeners.size() - 1; i >= 0; i--) {
-			downloadListeners.get(i).downloadEvent(event);
-		}
+		dispatcher.dispatch(event);
+	}
+
+	/**
+	 * Get the limiter that all downloads made by this service must use.
+	 *
+	 * @return rate limiter
+	 */
+	protected final RateLimiter getRateLimiter() {
+		return rateLimiter;
 	}
 
 	protected final long getDeferUntil() {
@@ -212,6 +381,10 @@ public abstract class AbstractUpdateService implements UpdateService {
 			long defer = getDeferUntil();
 			if (!check || defer == 0 || System.currentTimeMillis() >= defer) {
 				setDeferUntil(0);
+				if (!check) {
+					/* The update will resume whatever the prefetch had downloaded */
+					cancelPrefetch();
+				}
 				setUpdating(true, check);
 				try {
 					var ver = doUpdate(check);
@@ -222,6 +395,8 @@ public abstract class AbstractUpdateService implements UpdateService {
 						Logging.info("Version {0} is available.", ver);
 					}
 					setAvailableVersion(ver);
+					if (check && ver != null && prefetch)
+						startPrefetch(ver);
 				} finally {
 					setUpdating(false, check);
 					if (check) {
@@ -235,6 +410,24 @@ public abstract class AbstractUpdateService implements UpdateService {
 		}
 	}
 
+	private void startPrefetch(String version) {
+		synchronized (this) {
+			if (prefetching != null && prefetching.version.equals(version))
+				return;
+		}
+		cancelPrefetch();
+		synchronized (this) {
+			prefetching = new Prefetch(version);
+			prefetching.thread.start();
+		}
+	}
+
+	private void deliverDownload(DownloadEvent event) {
+		for (int i = downloadListeners.size() - 1; i >= 0; i--) {
+			downloadListeners.get(i).downloadEvent(event);
+		}
+	}
+
 	private void scheduleNextCheck() {
 		configDeferUpdate();
 		context.setUpdatesDeferredUntil(deferUntil);
@@ -10,9 +10,14 @@ import java.text.MessageFormat;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
@@ -62,24 +67,24 @@ public class AppRegistry {
 		private final String appPreferences;
 		private final String[] branches;
 
-		App(Scope scope, Preferences node) {
+		App(Scope scope, Map<String, String> properties) {
 			this.scope = scope;
-			id = node.get("id", "unknown");
+			id = properties.getOrDefault("id", "unknown");
 			if (id.equals(""))
 				throw new IllegalArgumentException("Invalid app data, missing ID (scope = " + scope + ").");
 			this.appPreferences = id.replace('.', '/');
-			var dirPath = node.get("appDir", "");
+			var dirPath = properties.getOrDefault("appDir", "");
 			if (dirPath.equals(""))
 				throw new IllegalArgumentException("Invalid app data, missing directory (scope = " + scope + " id = " + id + ".");
 			dir = dirPath;
-			launcherId = node.get("launcherId", "");
+			launcherId = properties.getOrDefault("launcherId", "");
 			if (launcherId.equals(""))
 				throw new IllegalArgumentException("Invalid app data, missing launcherId.");
-			var descriptorStr = node.get("updatesUrl", "");
-			packaging = MediaType.valueOf(node.get("packaging", MediaType.INSTALLER.name()));
+			var descriptorStr = properties.getOrDefault("updatesUrl", "");
+			packaging = MediaType.valueOf(properties.getOrDefault("packaging", MediaType.INSTALLER.name()));
 			updatesUrl = descriptorStr.equals("") ? null : descriptorStr;
-			category = AppCategory.valueOf(node.get("category", AppCategory.GUI.name()));
-			branches = parseBranches(node.get("branches", ""));
+			category = AppCategory.valueOf(properties.getOrDefault("category", AppCategory.GUI.name()));
+			branches = parseBranches(properties.getOrDefault("branches", ""));
 		}
 		
 		public LocalAppDef asLocalApp() {
@@ -117,6 +122,19 @@ public class AppRegistry {
 			getAppPreferences().putBoolean(AppRegistry.KEY_AUTOMATIC_UPDATES, automaticUpdates);
 		}
 
+		/**
+		 * Get the maximum rate at which updates for this app are downloaded.
+		 *
+		 * @return bytes per second, or zero for unlimited
+		 */
+		public final long getDownloadRate() {
+			return getAppPreferences().getLong(AppRegistry.KEY_DOWNLOAD_RATE, 0);
+		}
+
+		public final void setDownloadRate(long downloadRate) {
+			getAppPreferences().putLong(AppRegistry.KEY_DOWNLOAD_RATE, downloadRate);
+		}
+
 		public final void setPhase(Phase phase) {
 			var node = getAppPreferences();
 			node.put(AppRegistry.KEY_PHASE, phase.name());
@@ -171,22 +189,166 @@ public class AppRegistry {
 			return Objects.equals(id, other.id) && scope == other.scope;
 		}
 
+		/**
+		 * Get whether another registration of this app has the same details, unlike
+		 * {@link #equals(Object)} which only compares the ID and scope.
+		 */
+		boolean isSameAs(App other) {
+			return equals(other) && dir.equals(other.dir) && Objects.equals(updatesUrl, other.updatesUrl)
+					&& launcherId.equals(other.launcherId) && category == other.category
+					&& packaging == other.packaging && Arrays.equals(branches, other.branches);
+		}
+
 
 	}
 
 	public final static String KEY_PHASE = "phase";
 	public final static String KEY_AUTOMATIC_UPDATES = "automaticUpdates";
 	public final static String KEY_DEFER = "updatesDeferredUntil";
+	public final static String KEY_DOWNLOAD_RATE = "downloadRate";
+
+	/**
+	 * Default time a registry snapshot is used for when it cannot be told if the
+	 * backing store has changed, 5 seconds unless overridden by the
+	 * <code>jaul.registrySnapshotTime</code> system property (in seconds).
+	 */
+	public final static Duration DEFAULT_SNAPSHOT_TIME = Duration
+			.ofSeconds(Long.getLong("jaul.registrySnapshotTime", 5));
 
 	@Serialization
 	public enum Scope {
 		USER, SYSTEM
 	}
 
+	public static class RegistryEvent {
+		public enum Type {
+			ADDED, REMOVED, CHANGED;
+		}
+
+		private final Type type;
+		private final App app;
+
+		public RegistryEvent(Type type, App app) {
+			this.type = type;
+			this.app = app;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Get the app. For {@link Type#REMOVED}, this is the app as it was
+		 * before it was removed, and for {@link Type#CHANGED}, as it is now.
+		 *
+		 * @return app
+		 */
+		public App getApp() {
+			return app;
+		}
+	}
+
+	public interface RegistryListener {
+		void registryEvent(RegistryEvent event);
+	}
+
+	/**
+	 * Immutable view of all registered apps at a point in time, see
+	 * {@link AppRegistry#snapshot()}.
+	 */
+	public final static class Snapshot {
+		private final List<App> userApps;
+		private final List<App> systemApps;
+		private final boolean admin;
+		private volatile Map<Path, App> byDir;
+
+		private Snapshot(List<App> userApps, List<App> systemApps, boolean admin) {
+			this.userApps = Collections.unmodifiableList(userApps);
+			this.systemApps = Collections.unmodifiableList(systemApps);
+			this.admin = admin;
+		}
+
+		public List<App> getApps() {
+			return getApps(Optional.empty());
+		}
+
+		/**
+		 * Get apps. User apps take precedence over system apps with the same ID.
+		 * Without a scope, system apps are only included for administrators.
+		 *
+		 * @param scope scope, or empty for all apps
+		 * @return apps
+		 */
+		public List<App> getApps(Optional<Scope> scope) {
+			if (scope.isPresent())
+				return scope.get() == Scope.USER ? userApps : systemApps;
+			if (!admin)
+				return userApps;
+			var l = new ArrayList<>(userApps);
+			for (var app : systemApps) {
+				if (contains(app.getId(), userApps))
+					Logging.warn("{0} is already installed as user app, that will take precedence.", app.getId());
+				else
+					l.add(app);
+			}
+			return Collections.unmodifiableList(l);
+		}
+
+		/**
+		 * Get the app installed in a directory. User apps take precedence over
+		 * system apps installed in the same directory.
+		 *
+		 * @param installDir installation directory
+		 * @return app, or empty if no app is installed there
+		 */
+		public Optional<App> get(Path installDir) {
+			try {
+				return Optional.ofNullable(byDir().get(installDir.toRealPath()));
+			} catch (IOException ioe) {
+				return Optional.empty();
+			}
+		}
+
+		/* Resolving real paths is costly, so only done once per snapshot, when first needed */
+		private Map<Path, App> byDir() {
+			var map = byDir;
+			if (map == null) {
+				map = new HashMap<>();
+				for (var apps : Arrays.asList(userApps, systemApps)) {
+					for (var app : apps) {
+						try {
+							map.putIfAbsent(app.getDir().toRealPath(), app);
+						} catch (IOException ioe) {
+							Logging.debug("Ignoring {0}, its directory {1} cannot be resolved.", app.getId(), app.getDir());
+						}
+					}
+				}
+				byDir = map = Collections.unmodifiableMap(map);
+			}
+			return map;
+		}
+	}
+
+	/* Checking for changes costs a file system call per app, so is not done on every lookup */
+	private final static long CHECK_INTERVAL = 1000;
+	private final static int MAX_RESOLVED = 32;
+
 	private static AppRegistry instance;
 
-//	private Optional<Preferences> systemPreferences = Optional.empty();
-//	private Optional<Preferences> userPreferences = Optional.empty();
+	private final RegistryBackend backend;
+	@SuppressWarnings("serial")
+	private final Map<String, App> resolved = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, App> eldest) {
+			return size() > MAX_RESOLVED;
+		}
+	};
+	private final List<RegistryListener> registryListeners = new CopyOnWriteArrayList<>();
+	private final RegistryWatcher watcher = new RegistryWatcher(this, this::fireRegistry);
+	private Snapshot snapshot;
+	private Object stamp;
+	private long marked;
+	private long nextCheck;
 
 	public static AppRegistry get() {
 		if (instance == null) {
@@ -195,6 +357,22 @@ public class AppRegistry {
 		return instance;
 	}
 
+	static RegistryBackend defaultBackend() {
+		var name = System.getProperty("jaul.registryBackend", "preferences");
+		switch (name) {
+		case "preferences":
+			return new PreferencesRegistryBackend();
+		case "file":
+			return FileRegistryBackend.defaultBackend();
+		default:
+			try {
+				return (RegistryBackend) Class.forName(name).getConstructor().newInstance();
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				throw new IllegalArgumentException(MessageFormat.format("Invalid registry backend {0}.", name), e);
+			}
+		}
+	}
+
 	static URL parseURL(String urlStr) {
 		try {
 			return new URL(urlStr);
@@ -204,71 +382,170 @@ public class AppRegistry {
 	}
 
 	AppRegistry() {
+		this(defaultBackend());
 	}
 
+	AppRegistry(RegistryBackend backend) {
+		this.backend = backend;
+	}
+
+	/**
+	 * Get the backend storing the registry, chosen by the
+	 * <code>jaul.registryBackend</code> system property, see
+	 * {@link RegistryBackend}.
+	 *
+	 * @return backend
+	 */
+	public RegistryBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Get the node the {@link PreferencesRegistryBackend} stores system apps in.
+	 *
+	 * @return node
+	 */
 	public Preferences getSystemPreferences() {
 		return Preferences.systemNodeForPackage(AppRegistry.class).node("registry");
 	}
 
+	/**
+	 * Get the node the {@link PreferencesRegistryBackend} stores user apps in.
+	 *
+	 * @return node
+	 */
 	public Preferences getUserPreferences() {
 		return Preferences.userNodeForPackage(AppRegistry.class).node("registry");
 	}
 	
+	/**
+	 * Add a listener to be told when apps are registered, deregistered or
+	 * changed, including by other processes. While there are any listeners, the
+	 * registry is watched for changes on its own thread, which events are
+	 * delivered on. Bursts of changes are reported together once they stop, and
+	 * if the backend cannot be watched, it is checked every
+	 * {@link #DEFAULT_SNAPSHOT_TIME}.
+	 *
+	 * @param listener listener
+	 */
+	public void addRegistryListener(RegistryListener listener) {
+		registryListeners.add(listener);
+		watcher.start();
+	}
+
+	public void removeRegistryListener(RegistryListener listener) {
+		if (registryListeners.remove(listener) && registryListeners.isEmpty()) {
+			watcher.close();
+			/* A listener may have been added while closing */
+			if (!registryListeners.isEmpty())
+				watcher.start();
+		}
+	}
+
 	public List<App> getApps() {
 		return getApps(Optional.empty());
 	}
 
 	public List<App> getApps(Optional<Scope> scope) {
-		var l = new ArrayList<App>();
-		if(scope.isEmpty() || scope.get().equals(Scope.USER)) {
-			Logging.debug("Retrieving user applications.");
-			var p = getUserPreferences();
-			try {
-				p.sync();
-			} catch (BackingStoreException e) {
-			}
-			try {
-				for (var k : p.childrenNames()) {
-					try {
-						var node = p.node(k);
-						Logging.debug("    {0}", k);
-						l.add(checkApp(new App(Scope.USER, node), node));
-					} catch (Exception e) {
-						if (Logging.isDebugEnabled())
-							Logging.error(MessageFormat.format("Failed to add app {0}.", k), e);
-					}
-				}
-			} catch (BackingStoreException e) {
-				Logging.error("Failed to list system apps.", e);
-			}
+		return snapshot().getApps(scope);
+	}
+
+	/**
+	 * Get the registered apps. The snapshot is kept in memory, and only rebuilt
+	 * when the preferences backing the registry have changed, or when apps are
+	 * registered or deregistered by this runtime.
+	 * <p>
+	 * Changes by other processes are detected by checking the modification times
+	 * of the preference files, at most once a second. This is only possible when
+	 * preferences are stored as files (e.g. Linux). Otherwise, snapshots are
+	 * rebuilt once they are {@link #DEFAULT_SNAPSHOT_TIME} old. Apps that are
+	 * removed without being deregistered are only noticed when the snapshot is
+	 * rebuilt, see {@link #refresh()}.
+	 *
+	 * @return snapshot
+	 */
+	public synchronized Snapshot snapshot() {
+		checkForChanges();
+		if (snapshot == null) {
+			snapshot = load();
+			/* Loading removes any apps that have been uninstalled */
+			mark();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Rebuild the snapshot of registered apps from the backing store now,
+	 * whether or not it appears to have changed. Any apps cached by
+	 * {@link #get(String)} are also forgotten.
+	 *
+	 * @return snapshot
+	 */
+	public synchronized Snapshot refresh() {
+		invalidate();
+		return snapshot();
+	}
+
+	private void checkForChanges() {
+		var now = System.currentTimeMillis();
+		if (now < nextCheck)
+			return;
+		nextCheck = now + CHECK_INTERVAL;
+		var current = stamp();
+		if (current == null ? now - marked >= DEFAULT_SNAPSHOT_TIME.toMillis() : !current.equals(stamp)) {
+			invalidate();
 		}
-		if((Util.hasFullAdminRights() && scope.isEmpty()) || (!scope.isEmpty() && scope.get().equals(Scope.SYSTEM))) {
-			var s = getSystemPreferences();
-			try {
-				s.sync();
-			} catch (BackingStoreException e) {
-			}
-			Logging.debug("Retrieving system applications.");
-			try {
-				for (var k : s.childrenNames()) {
-					try {
-						var node = s.node(k);
+	}
+
+	private synchronized void invalidate() {
+		snapshot = null;
+		resolved.clear();
+		mark();
+	}
+
+	private void mark() {
+		stamp = stamp();
+		marked = System.currentTimeMillis();
+	}
+
+	private Snapshot load() {
+		Logging.debug("Retrieving user applications.");
+		var userApps = load(Scope.USER);
+		Logging.debug("Retrieving system applications.");
+		var systemApps = load(Scope.SYSTEM);
+		return new Snapshot(userApps, systemApps, Util.hasFullAdminRights());
+	}
+
+	private List<App> load(Scope scope) {
+		var l = new ArrayList<App>();
+		try {
+			for (var k : backend.list(scope)) {
+				try {
+					var properties = backend.get(scope, k);
+					if (properties.isPresent()) {
 						Logging.debug("    {0}", k);
-						if (contains(k, l)) {
-							Logging.warn("Already installed as user app, that will take precedence.");
-						} else
-							l.add(checkApp(new App(Scope.SYSTEM, node), node));
-					} catch (Exception e) {
-						if (Logging.isDebugEnabled())
-							Logging.error(MessageFormat.format("Failed to add app {0}. {1}", k, e.getMessage()));
+						l.add(checkApp(new App(scope, properties.get())));
 					}
+				} catch (Exception e) {
+					if (Logging.isDebugEnabled())
+						Logging.error(MessageFormat.format("Failed to add app {0}.", k), e);
 				}
-			} catch (BackingStoreException e) {
-				Logging.error("Failed to list system apps.", e);
 			}
+		} catch (IOException e) {
+			Logging.error(MessageFormat.format("Failed to list {0} apps.", scope.name().toLowerCase()), e);
 		}
 		return l;
 	}
+
+	private Object stamp() {
+		return backend.stamp();
+	}
+
+	private void fireRegistry(RegistryEvent event) {
+		for (int i = registryListeners.size() - 1; i >= 0; i--) {
+			registryListeners.get(i).registryEvent(event);
+		}
+	}
 	
 	public void deregister(String id) {
 
@@ -308,11 +585,16 @@ public class AppRegistry {
 		});
 		if (app.getScope() == Scope.SYSTEM) {
 			Logging.debug("De-registering as system wide application.");
-			deregister(app, getSystemPreferences());
 		} else {
 			Logging.debug("De-registering as user application.");
-			deregister(app, getUserPreferences());
 		}
+		try {
+			backend.remove(app.getScope(), app.getId());
+			backend.flush(app.getScope());
+		} catch (IOException e) {
+			Logging.error("Failed to de-register application.", e);
+		}
+		invalidate();
 	}
 
 	private TelemetryBuilder telemetryForApp(App app) {
@@ -342,63 +624,52 @@ public class AppRegistry {
 	}
 
 	public App get(Path installDir) {
-		try {
-			Logging.debug("Retrieving as user application.");
-			var userRoot = getUserPreferences();
-			for(var userAppId : userRoot.childrenNames()) {
-				try {
-					var app = new App(Scope.USER, userRoot.node(userAppId));
-					if(installDir.toRealPath().equals(app.getDir().toRealPath())) {
-						return app;
-					}
-				}
-				catch(Exception ioe) {
-					Logging.debug("Ignoring error looking for registered app give path " + installDir, ioe);
-				}
-			}
-			
-			Logging.debug("Retrieving as system application.");
-			var sysRoot = getSystemPreferences();
-			for(var systemAppId : sysRoot.childrenNames()) {
-				try {
-					var app = new App(Scope.SYSTEM, sysRoot.node(systemAppId));
-					if(installDir.toRealPath().equals(app.getDir().toRealPath())) {
-						return app;
-					}
-				}
-				catch(Exception ioe) {
-					Logging.debug("Ignoring error looking for registered app give path " + installDir, ioe);
-				}
-			}
-
-			throw new IllegalStateException(
-					"Cannot get app, as it has not been registered. This is usually done at installation time using '--jaul-register'. Either this did not happen,  "
-							+ "or you are running in a development environment. You can fake an installation by linking '.install4j' directory from a real installation, then running this app with '--jaul-register'.");
-		} catch (BackingStoreException bse) {
-			throw new IllegalStateException("Failed to query preferences api for application registry details.", bse);
-		}
+		var app = snapshot().get(installDir);
+		if (app.isEmpty()) {
+			/* May have been registered since the snapshot, in a way that can't be detected */
+			app = refresh().get(installDir);
+		}
+		return app.orElseThrow(() -> new IllegalStateException(
+				"Cannot get app, as it has not been registered. This is usually done at installation time using '--jaul-register'. Either this did not happen,  "
+						+ "or you are running in a development environment. You can fake an installation by linking '.install4j' directory from a real installation, then running this app with '--jaul-register'."));
 	}
 
-	public App get(String id) {
+	/**
+	 * Get a registered app. User apps take precedence over system apps with the
+	 * same ID. Recently resolved apps are cached until the registry changes.
+	 *
+	 * @param id app ID
+	 * @return app
+	 * @throws IllegalStateException if the app is not registered
+	 */
+	public synchronized App get(String id) {
+		checkForChanges();
 		try {
-			Logging.debug("Retrieving as user application.");
-			var userRoot = getUserPreferences();
-			if (Arrays.asList(userRoot.childrenNames()).contains(id)) {
-				return new App(Scope.USER, userRoot.node(id));
-			}
-			Logging.debug("Retrieving as system application.");
-			var sysRoot = getSystemPreferences();
-			if (Arrays.asList(sysRoot.childrenNames()).contains(id)) {
-				return new App(Scope.SYSTEM, sysRoot.node(id));
-			}
-			throw new IllegalStateException(
+			var app = resolve(Scope.USER, id);
+			if (app.isEmpty())
+				app = resolve(Scope.SYSTEM, id);
+			return app.orElseThrow(() -> new IllegalStateException(
 					"Cannot get app, as it has not been registered. This is usually done at installation time using '--jaul-register' or the Install4J installer. Either this did not happen,  "
-							+ "or you are running in a development environment. You can fake an installation by linking '.install4j' directory from a real installation, then running this app with '--jaul-register'.");
-		} catch (BackingStoreException bse) {
-			throw new IllegalStateException("Failed to query preferences api for application registry details.", bse);
+							+ "or you are running in a development environment. You can fake an installation by linking '.install4j' directory from a real installation, then running this app with '--jaul-register'."));
+		} catch (IOException ioe) {
+			throw new IllegalStateException("Failed to query application registry details.", ioe);
 		}
 	}
 
+	private Optional<App> resolve(Scope scope, String id) throws IOException {
+		var key = scope.name() + ":" + id;
+		var app = resolved.get(key);
+		if (app == null) {
+			Logging.debug("Retrieving as {0} application.", scope.name().toLowerCase());
+			var properties = backend.get(scope, id);
+			if (properties.isEmpty())
+				return Optional.empty();
+			app = new App(scope, properties.get());
+			resolved.put(key, app);
+		}
+		return Optional.of(app);
+	}
+
 	public App launch(Class<?> clazz) {
 		var app = get(clazz);
 		var telem = telemetryForApp(app).build();
@@ -443,23 +714,19 @@ public class AppRegistry {
 				var fullAdmin = Util.hasFullAdminRights();
 				var adminGroup = Util.isAdminGroup();
 				Logging.debug("Force user registration: " + forceUserRegistration + " Full admin: " + fullAdmin + " Admin gorup: " + adminGroup);
+				Scope scope;
 				if (!forceUserRegistration && ( fullAdmin || adminGroup)) {
 					Logging.debug("Registering as system wide application.");
-					checkPreferencesDir();
-					app = new App(Scope.SYSTEM,
-							saveToPreferences(jaulApp, appDir, appFile, packaging, getSystemPreferences()));
-					
-					Preferences.systemRoot().flush();
+					scope = Scope.SYSTEM;
 				} else {
 					Logging.debug("Registering as user application.");
-					app = new App(Scope.USER, saveToPreferences(jaulApp, appDir, appFile, packaging, getUserPreferences()));
-					
-	
-					Preferences.userRoot().flush();
+					scope = Scope.USER;
 				}
+				app = new App(scope, save(jaulApp, appDir, packaging, scope));
+				backend.flush(scope);
 			}
-			catch(BackingStoreException bse) {
-				throw new IllegalStateException("Failed to flush preferences for application registration.", bse);
+			catch(IOException ioe) {
+				throw new IllegalStateException("Failed to flush application registration.", ioe);
 			}
 			
 			var telem = telemetryForApp(app).build();
@@ -479,19 +746,19 @@ public class AppRegistry {
 		}
 	}
 
-	private boolean contains(String id, List<App> apps) {
+	private static boolean contains(String id, List<App> apps) {
 		for (var a : apps)
 			if (a.getId().equals(id))
 				return true;
 		return false;
 	}
 
-	private App checkApp(App app, Preferences node) throws IOException, BackingStoreException {
+	private App checkApp(App app) throws IOException {
 		if (Files.exists(app.getDir().resolve(".install4j").resolve("i4jparams.conf"))) {
 			return app;
 		} else {
 			try {
-				node.removeNode();
+				backend.remove(app.getScope(), app.getId());
 			}
 			catch(Exception e) {
 			}
@@ -520,16 +787,7 @@ public class AppRegistry {
 		return appDir;
 	}
 
-	private void deregister(App app, Preferences p) {
-		var appNode = p.node(app.getId());
-		try {
-			appNode.removeNode();
-		} catch (BackingStoreException e) {
-			Logging.error("Failed to de-register application.", e);
-		}
-	}
-
-	private Preferences saveToPreferences(JaulAppProvider app, Path appDir, Path appFile, MediaType packaging, Preferences p) {
+	private Map<String, String> save(JaulAppProvider app, Path appDir, MediaType packaging, Scope scope) {
 
 		Logging.debug("App :");
 		Logging.debug("   ID: {0}", app.id());
@@ -539,20 +797,21 @@ public class AppRegistry {
 		Logging.debug("   Other Branches: {0}", String.join(", ", app.branches()));
 		Logging.debug("   Category: {0}", app.category().name());
 		Logging.debug("   Dir: {0}", appDir.toAbsolutePath().toString());
-		var appNode = p.node(app.id());
+		var properties = new LinkedHashMap<String, String>();
+		properties.put("updatesUrl", app.updatesUrl());
+		properties.put("launcherId", app.updaterId());
+		properties.put("category", app.category().name());
+		properties.put("packaging", packaging.name());
+		properties.put("id", app.id());
+		properties.put("appDir", appDir.toAbsolutePath().toString());
+		properties.put("branches", String.join(",", app.branches()));
 		try {
-			appNode.put("updatesUrl", app.updatesUrl());
-			appNode.put("launcherId", app.updaterId());
-			appNode.put("category", app.category().name());
-			appNode.put("packaging", packaging.name());
-			appNode.put("id", app.id());
-			appNode.put("appDir", appDir.toAbsolutePath().toString());
-			appNode.put("branches", String.join(",", app.branches()));
-			appNode.flush();
+			backend.put(scope, app.id(), properties);
 		} catch (Exception ioe) {
 			Logging.warn("Cannot register app.", ioe);
 		}
-		return appNode;
+		invalidate();
+		return properties;
 	}
 	
 	public static Path getUserData() {
@@ -0,0 +1,297 @@
+package com.sshtools.jaul;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.sshtools.jaul.UpdateDescriptor.Media;
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+import com.sshtools.jaul.UpdateDescriptor.Patch;
+
+/**
+ * Compact binary encoding of an {@link UpdateDescriptor}, usually published as
+ * <code>updates.bin</code> next to <code>updates.xml</code>. Media is stored
+ * already classified, so decoding needs no XML parsing or pattern matching, and
+ * is a single sequential read.
+ * <p>
+ * Layout (all integers are unsigned LEB128 variable length unless noted) :-
+ * <pre>
+ * magic      4 bytes 'J' 'A' 'U' 'L'
+ * version    1 byte
+ * strings    count, then for each, byte length and UTF-8 bytes
+ * baseUrl    string index
+ * mirrors    count, then for each a string index (version 3 only)
+ * entries    count, then for each :-
+ *              os, arch, type, variant, name  string index
+ *              version                        string index + 1, or 0 if none
+ *              fileSize
+ *              md5                            1 byte length (0 if none) + raw bytes
+ *              sha256                         1 byte length (0 if none) + raw bytes
+ *              patches                        count, then for each (version 2 only) :-
+ *                fromVersion, name            string index
+ *                fromSha256                   1 byte length + raw bytes
+ *                fileSize
+ *                sha256                       1 byte length + raw bytes
+ * </pre>
+ * Each distinct string is stored (and so decoded) once, no matter how many
+ * entries use it. Enum constants are stored by name, so new constants may be
+ * added without changing the version.
+ * <p>
+ * May be run to convert an existing descriptor, e.g.
+ * <code>java com.sshtools.jaul.BinaryDescriptor updates.xml updates.bin</code>.
+ */
+public final class BinaryDescriptor {
+
+	public final static int VERSION = 3;
+
+	private final static byte[] MAGIC = { 'J', 'A', 'U', 'L' };
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryDescriptor <updates.xml> <updates.bin>");
+			System.exit(1);
+		}
+		UpdateDescriptor desc;
+		try (var in = Files.newInputStream(Paths.get(args[0]))) {
+			desc = new UpdateDescriptor(in);
+		}
+		try (var out = Files.newOutputStream(Paths.get(args[1]))) {
+			write(desc, out);
+		}
+	}
+
+	public static UpdateDescriptor read(InputStream in) throws IOException {
+		return read(in, Optional.empty());
+	}
+
+	/**
+	 * Read a descriptor, only keeping media that may satisfy the given key. See
+	 * {@link UpdateDescriptor#get(java.net.URI, MediaKey)}.
+	 *
+	 * @param in stream
+	 * @param key key of media required
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
+	public static UpdateDescriptor read(InputStream in, MediaKey key) throws IOException {
+		return read(in, Optional.of(key));
+	}
+
+	public static void write(UpdateDescriptor descriptor, OutputStream out) throws IOException {
+		var strings = new LinkedHashMap<String, Integer>();
+		var baseUrl = intern(strings, descriptor.getBaseUrl());
+		var mirrors = new ArrayList<Integer>();
+		for (var mirror : descriptor.getMirrors()) {
+			mirrors.add(intern(strings, mirror.toExternalForm()));
+		}
+		var medias = new ArrayList<>(descriptor.getMediaUrls().values());
+		var entries = new ArrayList<int[]>();
+		for (var media : medias) {
+			var key = media.key();
+			entries.add(new int[] { intern(strings, key.os().name()), intern(strings, key.arch().name()),
+					intern(strings, key.type().name()), intern(strings, key.variant()),
+					intern(strings, media.name()),
+					media.version() == null ? 0 : intern(strings, media.version()) + 1 });
+			for (var patch : media.patches()) {
+				intern(strings, patch.fromVersion());
+				intern(strings, patch.name());
+			}
+		}
+
+		var dout = new DataOutputStream(new BufferedOutputStream(out));
+		dout.write(MAGIC);
+		dout.writeByte(VERSION);
+		writeVarLong(dout, strings.size());
+		for (var str : strings.keySet()) {
+			var b = str.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(dout, b.length);
+			dout.write(b);
+		}
+		writeVarLong(dout, baseUrl);
+		writeVarLong(dout, mirrors.size());
+		for (var mirror : mirrors) {
+			writeVarLong(dout, mirror);
+		}
+
+		writeVarLong(dout, medias.size());
+		for (int i = 0; i < medias.size(); i++) {
+			var media = medias.get(i);
+			for (var idx : entries.get(i)) {
+				writeVarLong(dout, idx);
+			}
+			writeVarLong(dout, media.fileSize());
+			writeHash(dout, media.md5());
+			writeHash(dout, media.sha256());
+			writeVarLong(dout, media.patches().size());
+			for (var patch : media.patches()) {
+				writeVarLong(dout, strings.get(patch.fromVersion()));
+				writeVarLong(dout, strings.get(patch.name()));
+				writeHash(dout, patch.fromSha256());
+				writeVarLong(dout, patch.fileSize());
+				writeHash(dout, patch.sha256());
+			}
+		}
+		dout.flush();
+	}
+
+	private static UpdateDescriptor read(InputStream in, Optional<MediaKey> wanted) throws IOException {
+		var din = new DataInputStream(new BufferedInputStream(in));
+		var magic = new byte[MAGIC.length];
+		din.readFully(magic);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (magic[i] != MAGIC[i])
+				throw new IOException("Not a binary update descriptor.");
+		}
+		var version = din.readUnsignedByte();
+		if (version < 1 || version > VERSION)
+			throw new IOException(MessageFormat.format("Unsupported binary descriptor version {0}.", version));
+
+		var strings = new String[readInt(din)];
+		var buf = new byte[256];
+		for (int i = 0; i < strings.length; i++) {
+			var len = readInt(din);
+			if (len > buf.length)
+				buf = new byte[len];
+			din.readFully(buf, 0, len);
+			strings[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+		}
+
+		var baseUrl = string(strings, readInt(din));
+		var desc = new UpdateDescriptor(baseUrl);
+		if (version > 2) {
+			var mirrors = readInt(din);
+			for (int i = 0; i < mirrors; i++) {
+				desc.addMirror(string(strings, readInt(din)));
+			}
+		}
+
+		/* Enum constants only need to be looked up once per string, not per entry */
+		var constants = new Object[strings.length];
+
+		var count = readInt(din);
+		for (int i = 0; i < count; i++) {
+			var os = constant(strings, constants, readInt(din), MediaOS.class);
+			var arch = constant(strings, constants, readInt(din), MediaArch.class);
+			var type = constant(strings, constants, readInt(din), MediaType.class);
+			var variant = string(strings, readInt(din));
+			var name = string(strings, readInt(din));
+			var ver = readInt(din);
+			var fileSize = readVarLong(din);
+			var md5 = readHash(din);
+			var sha256 = readHash(din);
+
+			var key = new MediaKey(os, arch, type, variant);
+			var media = new Media(key, name, desc.getBase(), fileSize, md5, sha256,
+					ver == 0 ? null : string(strings, ver - 1));
+			if (version > 1) {
+				var patches = readInt(din);
+				for (int j = 0; j < patches; j++) {
+					var fromVersion = string(strings, readInt(din));
+					var patchName = string(strings, readInt(din));
+					var fromSha256 = readHash(din);
+					var patchSize = readVarLong(din);
+					var patchSha256 = readHash(din);
+					media.addPatch(new Patch(fromVersion, fromSha256, patchName, desc.getBase(), patchSize, patchSha256));
+				}
+			}
+			/* Entries are written in key order, so the first exact match has the preferred variant */
+			if (desc.offer(media, wanted, true))
+				break;
+		}
+		return desc;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E extends Enum<E>> E constant(String[] strings, Object[] constants, int idx, Class<E> type)
+			throws IOException {
+		var str = string(strings, idx);
+		var c = constants[idx];
+		if (!type.isInstance(c)) {
+			try {
+				c = Enum.valueOf(type, str);
+			} catch (IllegalArgumentException iae) {
+				throw new IOException(MessageFormat.format("Unknown {0} {1} in binary descriptor.",
+						type.getSimpleName(), str));
+			}
+			constants[idx] = c;
+		}
+		return (E) c;
+	}
+
+	private static String string(String[] strings, int idx) throws IOException {
+		if (idx < 0 || idx >= strings.length)
+			throw new IOException("Corrupt binary descriptor, invalid string index.");
+		return strings[idx];
+	}
+
+	private static int intern(Map<String, Integer> strings, String str) {
+		return strings.computeIfAbsent(str, k -> strings.size());
+	}
+
+	private static void writeHash(DataOutputStream out, byte[] hash) throws IOException {
+		if (hash == null) {
+			out.writeByte(0);
+		} else {
+			if (hash.length > 255)
+				throw new IOException("Hash is too long.");
+			out.writeByte(hash.length);
+			out.write(hash);
+		}
+	}
+
+	private static byte[] readHash(DataInputStream in) throws IOException {
+		var len = in.readUnsignedByte();
+		if (len == 0)
+			return null;
+		var hash = new byte[len];
+		in.readFully(hash);
+		return hash;
+	}
+
+	private static void writeVarLong(DataOutputStream out, long val) throws IOException {
+		while ((val & ~0x7fL) != 0) {
+			out.writeByte((int) ((val & 0x7f) | 0x80));
+			val >>>= 7;
+		}
+		out.writeByte((int) val);
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		var val = readVarLong(in);
+		if (val > Integer.MAX_VALUE)
+			throw new IOException("Corrupt binary descriptor, value out of range.");
+		return (int) val;
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long val = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			var b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			val |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return val;
+		}
+		throw new IOException("Corrupt binary descriptor, variable length integer too long.");
+	}
+
+	private BinaryDescriptor() {
+	}
+}
@@ -11,7 +11,10 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.lang.ProcessBuilder.Redirect;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,6 +35,11 @@ public final class CallInstall implements RemoteCallable {
 	private File installerFile;
 	private boolean gui;
 	private boolean debug;
+	private String sha256Sum;
+	private String md5Sum;
+	private long downloadRate;
+	private String[] mirrors = new String[0];
+	private String cacheDir;
 	
 	public CallInstall() {
 		prg = null;
@@ -47,6 +55,54 @@ public final class CallInstall implements RemoteCallable {
 		this.gui = gui;
 	}
 
+	/**
+	 * Set the SHA-256 checksum (hex) the downloaded installer must have. It is
+	 * also used to find the installer in the {@link DownloadCache}.
+	 *
+	 * @param sha256Sum checksum, or <code>null</code> if not known
+	 */
+	public void setSha256Sum(String sha256Sum) {
+		this.sha256Sum = sha256Sum;
+	}
+
+	/**
+	 * Set the MD5 checksum (hex) the downloaded installer must have.
+	 *
+	 * @param md5Sum checksum, or <code>null</code> if not known
+	 */
+	public void setMd5Sum(String md5Sum) {
+		this.md5Sum = md5Sum;
+	}
+
+	/**
+	 * Set the maximum rate to download the installer at.
+	 *
+	 * @param downloadRate bytes per second, or zero for no limit
+	 */
+	public void setDownloadRate(long downloadRate) {
+		this.downloadRate = downloadRate;
+	}
+
+	/**
+	 * Set other locations the installer may be downloaded from.
+	 *
+	 * @param mirrors mirror URLs
+	 */
+	public void setMirrors(String... mirrors) {
+		this.mirrors = mirrors;
+	}
+
+	/**
+	 * Set the directory of the {@link DownloadCache} to use. This should be set
+	 * when running elevated, as the default cache belongs to whichever user the
+	 * call is run as.
+	 *
+	 * @param cacheDir cache directory, or <code>null</code> for the default
+	 */
+	public void setCacheDir(String cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
 	@Override
 	public Serializable execute() {
 		try {
@@ -73,45 +129,44 @@ public final class CallInstall implements RemoteCallable {
 		debug("Download from " + url);
 		debug("Install dir path is " + (installDirPath == null ? "<unset>" : installDirPath));
 		
-		var installDir = installDirPath == null ? null : new File(installDirPath);
 		var filename = url.getPath();
 		var idx = filename.lastIndexOf('/');
 		if (idx != -1) {
 			filename = filename.substring(idx + 1);
 		}
-		
-		var outDir = installDir == null ? new File(System.getProperty("user.dir")) : installDir;
+
+		/* Download the installer file (or use the cached copy), verifying it if checksums are known */
+		if(progress != null)
+			progress.setStatusMessage("Downloading " + filename);
 		File outFile;
-		if(outDir.canWrite()) {
-			outFile = new File(outDir, filename);
-		}
-		else {
-			outFile = File.createTempFile("jaul", filename);
-			debug("Cannot write to " + outDir + ", so using tmpfile at " + outFile);
+		try {
+			var mirrorUris = new ArrayList<URI>();
+			for(var mirror : mirrors)
+				mirrorUris.add(new URI(mirror));
+			var cache = cacheDir == null ? DownloadCache.get() : DownloadCache.get(Paths.get(cacheDir));
+			outFile = cache.download(url.toURI(), filename, sha256Sum, downloader -> {
+				downloader.
+					withMd5Sum(md5Sum).
+					withMirrors(mirrorUris).
+					withRateLimiter(new RateLimiter(downloadRate)).
+					withProgress((t, sz) -> {
+						if(progress != null && sz > 0)
+							progress.setPercentCompleted((int) (((double) t / (double) sz) * 100.0));
+					});
+			}).toFile();
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid download URL " + url, e);
 		}
-		debug("Will save to " + outFile);
+		debug("Downloaded to " + outFile);
 
-		/* Download the installer file */
-		var inConx = url.openConnection();
-		var sz = inConx.getContentLength();
-		if(!outFile.exists() || outFile.length() != sz) {
-			debug("Output does not exist or differs in size, so downloading.");
-			var buf = new byte[65536];
-			try (var out = new FileOutputStream(outFile)) {
-				try(var inStream = inConx.getInputStream()) {
-					if(progress != null)
-						progress.setStatusMessage("Downloading " + filename);
-					int r;
-					int t = 0;
-					while ((r = inStream.read(buf)) != -1) {
-						out.write(buf, 0, r);
-						t += r;
-						if(progress != null)
-							progress.setPercentCompleted((int) (((double) t / (double) sz) * 100.0));
-					}
-				}
-			}
-			debug("Downloaded.");
+		/*
+		 * The cache only checks a hit by size and modification time, and belongs to
+		 * the user, but the installer is about to run with elevated rights.
+		 */
+		if(sha256Sum != null && !sha256Sum.isEmpty()) {
+			if(progress != null)
+				progress.setStatusMessage("Verifying " + filename);
+			DownloadCache.verify(outFile.toPath(), sha256Sum);
 		}
 
 		runInstaller(installDirPath, unattended, progress, outFile, gui);
@@ -0,0 +1,309 @@
+package com.sshtools.jaul;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary delta between two versions of a media file, so an update can be made
+ * by downloading only what changed and rebuilding the new media from the old.
+ * <p>
+ * Patches are created by matching fixed size blocks of the old file anywhere in
+ * the new file, using a rolling checksum, in the same way as rsync. The new
+ * file is then described as a sequence of copies from the old file and literal
+ * data, which is deflate compressed.
+ * <p>
+ * Layout (all integers are unsigned LEB128 variable length unless noted) :-
+ * <pre>
+ * magic      4 bytes 'J' 'D' 'L' 'T'
+ * version    1 byte
+ * baseSize   size of the old file
+ * targetSize size of the new file
+ * ops        deflate compressed, each one of :-
+ *              0                 end
+ *              1 offset length   copy from old file
+ *              2 length bytes    literal data
+ * </pre>
+ * May be run to create or apply a patch, e.g.
+ * <code>java com.sshtools.jaul.DeltaPatch create app-1.0.sh app-1.1.sh app-1.0-1.1.jdelta</code>.
+ */
+public final class DeltaPatch {
+
+	public final static int VERSION = 1;
+
+	private final static byte[] MAGIC = { 'J', 'D', 'L', 'T' };
+	private final static int BLOCK_SIZE = 4096;
+	private final static int OP_END = 0;
+	private final static int OP_COPY = 1;
+	private final static int OP_DATA = 2;
+	private final static int MAX_LITERAL = 1024 * 1024;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4 || !(args[0].equals("create") || args[0].equals("apply"))) {
+			System.err.println("Usage: DeltaPatch create <old> <new> <patch>");
+			System.err.println("       DeltaPatch apply <old> <patch> <new>");
+			System.exit(1);
+		}
+		if (args[0].equals("create")) {
+			try (var out = Files.newOutputStream(Paths.get(args[3]))) {
+				create(Paths.get(args[1]), Paths.get(args[2]), out);
+			}
+		} else {
+			try (var in = Files.newInputStream(Paths.get(args[2]));
+					var out = Files.newOutputStream(Paths.get(args[3]))) {
+				apply(Paths.get(args[1]), in, out);
+			}
+		}
+	}
+
+	/**
+	 * Create a patch that will rebuild <code>target</code> from
+	 * <code>base</code>.
+	 *
+	 * @param base   old file
+	 * @param target new file
+	 * @param out    stream to write patch to
+	 * @throws IOException on error
+	 */
+	public static void create(Path base, Path target, OutputStream out) throws IOException {
+		try (var baseCh = FileChannel.open(base, StandardOpenOption.READ);
+				var targetCh = FileChannel.open(target, StandardOpenOption.READ)) {
+			var old = map(baseCh);
+			var nw = map(targetCh);
+			var oldSize = old.limit();
+			var newSize = nw.limit();
+
+			/* Index every whole block of the old file by its weak checksum */
+			var blocks = new HashMap<Integer, Integer>();
+			for (int off = 0; off + BLOCK_SIZE <= oldSize; off += BLOCK_SIZE) {
+				blocks.putIfAbsent(checksum(old, off), off);
+			}
+
+			var dout = new DataOutputStream(new BufferedOutputStream(out));
+			dout.write(MAGIC);
+			dout.writeByte(VERSION);
+			writeVarLong(dout, oldSize);
+			writeVarLong(dout, newSize);
+
+			var deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			var deflate = new DeflaterOutputStream(dout, deflater);
+			var ops = new DataOutputStream(new BufferedOutputStream(deflate, 65536));
+			var literal = new ByteArrayOutputStream();
+
+			var pos = 0;
+			var a = 0;
+			var b = 0;
+			var rolling = false;
+			while (pos < newSize) {
+				if (pos + BLOCK_SIZE > newSize) {
+					literal.write(nw.get(pos++));
+					continue;
+				}
+				if (!rolling) {
+					a = 0;
+					b = 0;
+					for (int i = 0; i < BLOCK_SIZE; i++) {
+						var v = nw.get(pos + i) & 0xff;
+						a += v;
+						b += (BLOCK_SIZE - i) * v;
+					}
+					rolling = true;
+				}
+				var match = blocks.get(((b & 0xffff) << 16) | (a & 0xffff));
+				if (match != null && equal(old, match, nw, pos, BLOCK_SIZE)) {
+					/* Extend the match as far as it goes */
+					var len = BLOCK_SIZE;
+					while (match + len < oldSize && pos + len < newSize && old.get(match + len) == nw.get(pos + len))
+						len++;
+					flushLiteral(ops, literal);
+					ops.writeByte(OP_COPY);
+					writeVarLong(ops, match);
+					writeVarLong(ops, len);
+					pos += len;
+					rolling = false;
+				} else {
+					var out1 = nw.get(pos) & 0xff;
+					literal.write(out1);
+					if (literal.size() >= MAX_LITERAL)
+						flushLiteral(ops, literal);
+					if (pos + BLOCK_SIZE < newSize) {
+						var in1 = nw.get(pos + BLOCK_SIZE) & 0xff;
+						a += in1 - out1;
+						b += a - BLOCK_SIZE * out1;
+					} else {
+						rolling = false;
+					}
+					pos++;
+				}
+			}
+			flushLiteral(ops, literal);
+			ops.writeByte(OP_END);
+			ops.flush();
+			deflate.finish();
+			deflater.end();
+			dout.flush();
+		}
+	}
+
+	/**
+	 * Rebuild a file from its old version and a patch.
+	 *
+	 * @param base  old file
+	 * @param patch patch
+	 * @param out   stream to write new file to
+	 * @throws IOException if the patch is corrupt, or is not for this old file
+	 */
+	public static void apply(Path base, InputStream patch, OutputStream out) throws IOException {
+		var din = new DataInputStream(new BufferedInputStream(patch));
+		var magic = new byte[MAGIC.length];
+		din.readFully(magic);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (magic[i] != MAGIC[i])
+				throw new IOException("Not a delta patch.");
+		}
+		var version = din.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format("Unsupported delta patch version {0}.", version));
+		var baseSize = readVarLong(din);
+		var targetSize = readVarLong(din);
+
+		try (var baseCh = FileChannel.open(base, StandardOpenOption.READ)) {
+			if (baseCh.size() != baseSize)
+				throw new IOException(MessageFormat.format("Delta patch is for a file of {0} bytes, not {1}.",
+						baseSize, baseCh.size()));
+			var old = map(baseCh);
+			var inflater = new Inflater();
+			try {
+				var ops = new DataInputStream(new InflaterInputStream(din, inflater, 65536));
+				var buf = new byte[65536];
+				var written = 0L;
+				while (true) {
+					var op = ops.read();
+					if (op == -1)
+						throw new EOFException("Delta patch ended early.");
+					if (op == OP_END)
+						break;
+					var len = 0L;
+					if (op == OP_COPY) {
+						var offset = readVarLong(ops);
+						len = readVarLong(ops);
+						if (offset + len > baseSize)
+							throw new IOException("Corrupt delta patch, copy is outside of old file.");
+						var dup = old.duplicate();
+						dup.position((int) offset);
+						var remain = len;
+						while (remain > 0) {
+							var n = (int) Math.min(buf.length, remain);
+							dup.get(buf, 0, n);
+							out.write(buf, 0, n);
+							remain -= n;
+						}
+					} else if (op == OP_DATA) {
+						len = readVarLong(ops);
+						var remain = len;
+						while (remain > 0) {
+							var n = (int) Math.min(buf.length, remain);
+							ops.readFully(buf, 0, n);
+							out.write(buf, 0, n);
+							remain -= n;
+						}
+					} else {
+						throw new IOException(MessageFormat.format("Corrupt delta patch, unknown operation {0}.", op));
+					}
+					written += len;
+					if (written > targetSize)
+						throw new IOException("Corrupt delta patch, too much data.");
+				}
+				if (written != targetSize)
+					throw new IOException(MessageFormat.format("Delta patch produced {0} bytes, but {1} were expected.",
+							written, targetSize));
+				/* Reading to the end checks the compressed data's checksum, and that it is all there */
+				if (ops.read() != -1)
+					throw new IOException("Corrupt delta patch, data after end.");
+			} finally {
+				inflater.end();
+			}
+		}
+		out.flush();
+	}
+
+	private static void flushLiteral(DataOutputStream ops, ByteArrayOutputStream literal) throws IOException {
+		if (literal.size() > 0) {
+			ops.writeByte(OP_DATA);
+			writeVarLong(ops, literal.size());
+			literal.writeTo(ops);
+			literal.reset();
+		}
+	}
+
+	private static int checksum(MappedByteBuffer buf, int off) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			var v = buf.get(off + i) & 0xff;
+			a += v;
+			b += (BLOCK_SIZE - i) * v;
+		}
+		return ((b & 0xffff) << 16) | (a & 0xffff);
+	}
+
+	private static boolean equal(MappedByteBuffer b1, int off1, MappedByteBuffer b2, int off2, int len) {
+		return slice(b1, off1, len).equals(slice(b2, off2, len));
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int off, int len) {
+		var dup = buf.duplicate();
+		dup.position(off).limit(off + len);
+		return dup;
+	}
+
+	private static MappedByteBuffer map(FileChannel ch) throws IOException {
+		if (ch.size() > Integer.MAX_VALUE)
+			throw new IOException("File is too large for a delta patch.");
+		return ch.map(MapMode.READ_ONLY, 0, ch.size());
+	}
+
+	private static void writeVarLong(DataOutputStream out, long val) throws IOException {
+		while ((val & ~0x7fL) != 0) {
+			out.writeByte((int) ((val & 0x7f) | 0x80));
+			val >>>= 7;
+		}
+		out.writeByte((int) val);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long val = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			var b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			val |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return val;
+		}
+		throw new IOException("Corrupt delta patch, variable length integer too long.");
+	}
+
+	private DeltaPatch() {
+	}
+}
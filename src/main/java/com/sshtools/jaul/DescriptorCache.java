@@ -0,0 +1,672 @@
+package com.sshtools.jaul;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+
+/**
+ * Keeps a copy of each downloaded update descriptor in {@link AppRegistry#getUserData()},
+ * along with its <code>ETag</code> and <code>Last-Modified</code> headers. These are
+ * used to make conditional requests, so an unchanged descriptor costs a single
+ * <code>304 Not Modified</code> response instead of the full document.
+ * <p>
+ * Descriptors are requested with <code>gzip</code> or <code>deflate</code>
+ * content encoding, kept compressed on disk, and decompressed as they are parsed.
+ */
+public final class DescriptorCache {
+
+	private final static class Default {
+		private final static DescriptorCache DEFAULT = new DescriptorCache(
+				AppRegistry.getUserData().resolve("descriptors"));
+	}
+
+	public final static class CachedDescriptor {
+		private final Path path;
+		private final Optional<String> encoding;
+		private final boolean notModified;
+
+		CachedDescriptor(Path path, Optional<String> encoding, boolean notModified) {
+			this.path = path;
+			this.encoding = encoding;
+			this.notModified = notModified;
+		}
+
+		/**
+		 * Path to the descriptor as received, which may be compressed. See
+		 * {@link #encoding()}.
+		 *
+		 * @return path
+		 */
+		public Path path() {
+			return path;
+		}
+
+		/**
+		 * The <code>Content-Encoding</code> the descriptor was received with, if any.
+		 *
+		 * @return encoding
+		 */
+		public Optional<String> encoding() {
+			return encoding;
+		}
+
+		/**
+		 * Open the descriptor, decompressing it as it is read if required.
+		 *
+		 * @return stream of plain XML
+		 * @throws IOException on error
+		 */
+		public InputStream open() throws IOException {
+			return decode(encoding, Files.newInputStream(path));
+		}
+
+		public boolean notModified() {
+			return notModified;
+		}
+	}
+
+	private final static String KEY_URI = "uri";
+	private final static String KEY_ETAG = "etag";
+	private final static String KEY_LAST_MODIFIED = "lastModified";
+	private final static String KEY_ENCODING = "encoding";
+
+	private final static boolean PREFER_BINARY = Boolean.parseBoolean(System.getProperty("jaul.binaryDescriptors", "true"));
+	private final static Duration BINARY_RECHECK = Duration.ofDays(1);
+
+	private interface DescriptorLoader {
+		UpdateDescriptor load(URI uri) throws IOException;
+	}
+
+	/*
+	 * The server says the file does not exist. Many (e.g. S3 and most CDNs) answer
+	 * 403 rather than 404 for a missing file, so both count
+	 */
+	@SuppressWarnings("serial")
+	private final static class NotFoundException extends FileNotFoundException {
+		private NotFoundException(String s) {
+			super(s);
+		}
+	}
+
+	/*
+	 * Copies everything read through it to another stream, e.g. to store a body as
+	 * it is parsed. Closing it closes neither stream.
+	 */
+	private final static class CopyingInputStream extends FilterInputStream {
+		private final OutputStream out;
+
+		private CopyingInputStream(InputStream in, OutputStream out) {
+			super(in);
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException {
+			var b = super.read();
+			if (b != -1)
+				out.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			var r = super.read(b, off, len);
+			if (r > 0)
+				out.write(b, off, r);
+			return r;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			/* Skipped bytes must still be copied */
+			var buf = new byte[(int) Math.min(n, 8192)];
+			var skipped = 0L;
+			while (skipped < n) {
+				var r = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+				if (r == -1)
+					break;
+				skipped += r;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			/* Parsers may close their stream, but the rest must still be copied */
+		}
+	}
+
+	private final Path dir;
+	private final Map<URI, UpdateDescriptor> parsed = new HashMap<>();
+
+	public static DescriptorCache get() {
+		return Default.DEFAULT;
+	}
+
+	public DescriptorCache(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Get the full parsed descriptor. If the server reports it has not changed
+	 * since it was last fetched, the previously parsed instance is returned.
+	 * <p>
+	 * If the descriptor is an <code>.xml</code> file, and the server also offers
+	 * a {@link BinaryDescriptor} alongside it, that will be used instead.
+	 *
+	 * @param uri uri of descriptor
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
+	public UpdateDescriptor descriptor(URI uri) throws IOException {
+		return preferBinary(uri, u -> parse(u, fetch(u)));
+	}
+
+	/**
+	 * Get a descriptor that only contains media that may satisfy the given key. See
+	 * {@link UpdateDescriptor#get(URI, MediaKey)}.
+	 *
+	 * @param uri uri of descriptor
+	 * @param key key of media required
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
+	public UpdateDescriptor descriptor(URI uri, MediaKey key) throws IOException {
+		return preferBinary(uri, u -> parse(u, fetch(u), key));
+	}
+
+	/**
+	 * Asynchronous version of {@link #descriptor(URI)}. No thread is held while
+	 * waiting for the response, and a changed descriptor is parsed as it arrives,
+	 * while also being stored in the cache. Cancelling the returned future aborts
+	 * the request.
+	 *
+	 * @param uri uri of descriptor
+	 * @return future descriptor
+	 */
+	public CompletableFuture<UpdateDescriptor> descriptorAsync(URI uri) {
+		return preferBinaryAsync(uri, u -> parseAsync(u, Optional.empty()));
+	}
+
+	/**
+	 * Asynchronous version of {@link #descriptor(URI, MediaKey)}. As
+	 * {@link #descriptorAsync(URI)}, except parsing stops once the media for the
+	 * key has been found, and the rest of the descriptor is only stored.
+	 *
+	 * @param uri uri of descriptor
+	 * @param key key of media required
+	 * @return future descriptor
+	 */
+	public CompletableFuture<UpdateDescriptor> descriptorAsync(URI uri, MediaKey key) {
+		return preferBinaryAsync(uri, u -> parseAsync(u, Optional.of(key)));
+	}
+
+	/**
+	 * Make sure the local copy of the descriptor is up to date, downloading it only
+	 * if it has changed (or there is no local copy).
+	 *
+	 * @param uri uri of descriptor
+	 * @return cached descriptor
+	 * @throws IOException on error
+	 */
+	public CachedDescriptor fetch(URI uri) throws IOException {
+		var meta = loadMeta(uri);
+		var tmp = createTempFile();
+		try {
+			return complete(uri, meta, tmp, HttpTransport.get().send(request(uri, meta), bodyHandler(tmp)));
+		} catch (InterruptedException e) {
+			throw new IOException("Failed to load remote descriptor.", e);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Asynchronous version of {@link #fetch(URI)}. The body is written to the
+	 * cache as it arrives.
+	 *
+	 * @param uri uri of descriptor
+	 * @return future cached descriptor
+	 */
+	public CompletableFuture<CachedDescriptor> fetchAsync(URI uri) {
+		var meta = loadMeta(uri);
+		Path tmp;
+		try {
+			tmp = createTempFile();
+		} catch (IOException ioe) {
+			return CompletableFuture.failedFuture(ioe);
+		}
+
+		var sent = HttpTransport.get().sendAsync(request(uri, meta), bodyHandler(tmp));
+		var result = sent.thenApply(response -> {
+			try {
+				return complete(uri, meta, tmp, response);
+			} catch (IOException ioe) {
+				throw new CompletionException(ioe);
+			}
+		});
+		result.whenComplete((cached, ex) -> {
+			if (ex != null) {
+				/* Also aborts the exchange if the caller cancelled */
+				sent.cancel(true);
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Remove any local copy of the descriptor.
+	 *
+	 * @param uri uri of descriptor
+	 * @throws IOException on error
+	 */
+	public void invalidate(URI uri) throws IOException {
+		synchronized (parsed) {
+			parsed.remove(uri);
+		}
+		Files.deleteIfExists(metaFile(uri));
+		Files.deleteIfExists(noBinaryFile(uri));
+		Files.deleteIfExists(plainFileFor(uri));
+		Files.deleteIfExists(file(uri));
+	}
+
+	/**
+	 * Get the local copy of a descriptor as plain, uncompressed XML, for consumers
+	 * that must read a file themselves. {@link #fetch(URI)} should have been called
+	 * first.
+	 *
+	 * @param uri uri of descriptor
+	 * @return path to plain XML
+	 * @throws IOException on error
+	 */
+	Path plainFile(URI uri) throws IOException {
+		var body = file(uri);
+		var encoding = loadMeta(uri).map(p -> p.getProperty(KEY_ENCODING));
+		if (encoding.isEmpty())
+			return body;
+
+		var plain = plainFileFor(uri);
+		if (!Files.exists(plain)
+				|| Files.getLastModifiedTime(plain).compareTo(Files.getLastModifiedTime(body)) < 0) {
+			var tmp = createTempFile();
+			try {
+				try (var in = decode(encoding, Files.newInputStream(body))) {
+					Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+				}
+				Files.move(tmp, plain, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		return plain;
+	}
+
+	Path file(URI uri) {
+		return dir.resolve(key(uri) + ".xml");
+	}
+
+	private Path plainFileFor(URI uri) {
+		return dir.resolve(key(uri) + ".plain.xml");
+	}
+
+	private static InputStream decode(Optional<String> encoding, InputStream in) throws IOException {
+		if (encoding.isEmpty())
+			return in;
+		try {
+			switch (encoding.get()) {
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(in, 8192);
+			case "deflate":
+				return new InflaterInputStream(in);
+			default:
+				throw new IOException(MessageFormat.format("Unsupported descriptor encoding {0}.", encoding.get()));
+			}
+		} catch (IOException ioe) {
+			in.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Get the full parsed descriptor, always as XML. For consumers that need
+	 * {@link #plainFile(URI)}.
+	 *
+	 * @param uri uri of descriptor
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
+	UpdateDescriptor xmlDescriptor(URI uri) throws IOException {
+		return parse(uri, fetch(uri));
+	}
+
+	private UpdateDescriptor preferBinary(URI uri, DescriptorLoader loader) throws IOException {
+		var bin = binaryUri(uri);
+		if (bin.isPresent()) {
+			try {
+				return loader.load(bin.get());
+			} catch (InterruptedIOException iioe) {
+				throw iioe;
+			} catch (IOException ioe) {
+				binaryFailed(uri, bin.get(), ioe);
+			}
+		}
+		return loader.load(uri);
+	}
+
+	private CompletableFuture<UpdateDescriptor> preferBinaryAsync(URI uri,
+			Function<URI, CompletableFuture<UpdateDescriptor>> loader) {
+		var bin = binaryUri(uri);
+		if (bin.isEmpty())
+			return loader.apply(uri);
+
+		var current = new AtomicReference<CompletableFuture<UpdateDescriptor>>(loader.apply(bin.get()));
+		var result = current.get().handle((desc, ex) -> {
+			if (ex == null)
+				return CompletableFuture.completedFuture(desc);
+			var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			if (cause instanceof IOException && !(cause instanceof InterruptedIOException)) {
+				binaryFailed(uri, bin.get(), (IOException) cause);
+				current.set(loader.apply(uri));
+				return current.get();
+			}
+			return CompletableFuture.<UpdateDescriptor>failedFuture(cause);
+		}).thenCompose(Function.identity());
+		result.whenComplete((desc, ex) -> {
+			if (result.isCancelled())
+				current.get().cancel(true);
+		});
+		return result;
+	}
+
+	private Optional<URI> binaryUri(URI uri) {
+		var path = uri.getPath();
+		if (!PREFER_BINARY || path == null || !path.endsWith(".xml"))
+			return Optional.empty();
+
+		var marker = noBinaryFile(uri);
+		try {
+			if (Files.exists(marker) && Files.getLastModifiedTime(marker).toInstant()
+					.isAfter(Instant.now().minus(BINARY_RECHECK))) {
+				return Optional.empty();
+			}
+		} catch (IOException ioe) {
+		}
+
+		var str = uri.toString();
+		var idx = str.lastIndexOf(".xml");
+		return Optional.of(URI.create(str.substring(0, idx) + ".bin" + str.substring(idx + 4)));
+	}
+
+	/*
+	 * Any failure to get or decode the binary descriptor (e.g. it is corrupt, or is
+	 * a newer version than this client understands) falls back to XML, but it is
+	 * only remembered as missing if the server said so. That is only remembered
+	 * for BINARY_RECHECK, so a 403 that was really temporary does not last
+	 */
+	private void binaryFailed(URI uri, URI bin, IOException ioe) {
+		if (ioe instanceof NotFoundException) {
+			binaryMissing(uri);
+		} else {
+			Logging.warn("Failed to load binary descriptor {0}, using XML. {1}", bin, ioe.getMessage());
+			try {
+				/* So a corrupt copy is not used again just because it has not changed */
+				invalidate(bin);
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void binaryMissing(URI uri) {
+		Logging.debug("No binary descriptor for {0}, using XML.", uri);
+		try {
+			Files.createDirectories(dir);
+			var marker = noBinaryFile(uri);
+			if (Files.exists(marker))
+				Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+			else
+				Files.createFile(marker);
+		} catch (IOException ioe) {
+			Logging.warn("Failed to record missing binary descriptor for {0}.", uri);
+		}
+	}
+
+	private UpdateDescriptor parse(URI uri, CachedDescriptor cached) throws IOException {
+		synchronized (parsed) {
+			var desc = parsed.get(uri);
+			if (desc != null && cached.notModified()) {
+				Logging.debug("Descriptor {0} not modified, using parsed copy.", uri);
+				return desc;
+			}
+		}
+		UpdateDescriptor desc;
+		try (var in = cached.open()) {
+			desc = isBinary(uri) ? BinaryDescriptor.read(in) : new UpdateDescriptor(in);
+		}
+		synchronized (parsed) {
+			parsed.put(uri, desc);
+		}
+		return desc;
+	}
+
+	private CompletableFuture<UpdateDescriptor> parseAsync(URI uri, Optional<MediaKey> key) {
+		var meta = loadMeta(uri);
+		Path tmp;
+		try {
+			tmp = createTempFile();
+		} catch (IOException ioe) {
+			return CompletableFuture.failedFuture(ioe);
+		}
+
+		var body = new AtomicReference<InputStream>();
+		var sent = HttpTransport.get().sendAsync(request(uri, meta), info -> info.statusCode() == 200
+				? BodySubscribers.ofInputStream()
+				: BodySubscribers.replacing(InputStream.nullInputStream()));
+		var result = sent.thenApplyAsync(response -> {
+			try {
+				if (response.statusCode() != 200) {
+					response.body().close();
+					var cached = complete(uri, meta, tmp, response);
+					return key.isPresent() ? parse(uri, cached, key.get()) : parse(uri, cached);
+				}
+
+				body.set(response.body());
+				UpdateDescriptor desc;
+				try (var in = response.body(); var out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+					var copying = new CopyingInputStream(in, out);
+					try (var decoded = decode(encoding(response), copying)) {
+						desc = read(uri, decoded, key);
+					}
+					/* Parsing may stop early, but the cached copy must be complete */
+					copying.transferTo(OutputStream.nullOutputStream());
+				}
+				complete(uri, meta, tmp, response);
+				if (key.isEmpty()) {
+					synchronized (parsed) {
+						parsed.put(uri, desc);
+					}
+				}
+				return desc;
+			} catch (IOException ioe) {
+				throw new CompletionException(ioe);
+			}
+		}, HttpTransport.get().executor());
+		result.whenComplete((desc, ex) -> {
+			if (ex != null) {
+				/* Also aborts the exchange if the caller cancelled, even if it is being read */
+				sent.cancel(true);
+				var in = body.get();
+				try {
+					if (in != null)
+						in.close();
+				} catch (IOException e) {
+				}
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+				}
+			}
+		});
+		return result;
+	}
+
+	private static UpdateDescriptor read(URI uri, InputStream in, Optional<MediaKey> key) throws IOException {
+		if (isBinary(uri))
+			return key.isPresent() ? BinaryDescriptor.read(in, key.get()) : BinaryDescriptor.read(in);
+		else
+			return key.isPresent() ? new UpdateDescriptor(in, key.get()) : new UpdateDescriptor(in);
+	}
+
+	private UpdateDescriptor parse(URI uri, CachedDescriptor cached, MediaKey key) throws IOException {
+		try (var in = cached.open()) {
+			return isBinary(uri) ? BinaryDescriptor.read(in, key) : new UpdateDescriptor(in, key);
+		}
+	}
+
+	private static boolean isBinary(URI uri) {
+		var path = uri.getPath();
+		return path != null && path.endsWith(".bin");
+	}
+
+	private HttpRequest request(URI uri, Optional<Properties> meta) {
+		var builder = HttpTransport.get().request(uri).header("Accept-Encoding", "gzip, deflate").GET();
+		meta.ifPresent(p -> {
+			var etag = p.getProperty(KEY_ETAG);
+			if (etag != null)
+				builder.header("If-None-Match", etag);
+			var lastModified = p.getProperty(KEY_LAST_MODIFIED);
+			if (lastModified != null)
+				builder.header("If-Modified-Since", lastModified);
+		});
+		return builder.build();
+	}
+
+	private BodyHandler<Path> bodyHandler(Path tmp) {
+		return info -> info.statusCode() == 200 ? BodySubscribers.ofFile(tmp) : BodySubscribers.replacing(null);
+	}
+
+	private CachedDescriptor complete(URI uri, Optional<Properties> meta, Path tmp, HttpResponse<?> response)
+			throws IOException {
+		var body = file(uri);
+		try {
+			if (response.statusCode() == 304 && meta.isPresent()) {
+				return new CachedDescriptor(body, Optional.ofNullable(meta.get().getProperty(KEY_ENCODING)), true);
+
+			} else if (response.statusCode() == 200) {
+				var encoding = encoding(response);
+				Files.move(tmp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Files.deleteIfExists(plainFileFor(uri));
+				/* Or a later 304 would return what was parsed from the old copy */
+				synchronized (parsed) {
+					parsed.remove(uri);
+				}
+
+				var newMeta = new Properties();
+				newMeta.setProperty(KEY_URI, uri.toString());
+				encoding.ifPresent(v -> newMeta.setProperty(KEY_ENCODING, v));
+				response.headers().firstValue("ETag").ifPresent(v -> newMeta.setProperty(KEY_ETAG, v));
+				response.headers().firstValue("Last-Modified").ifPresent(v -> newMeta.setProperty(KEY_LAST_MODIFIED, v));
+				storeMeta(uri, newMeta);
+				return new CachedDescriptor(body, encoding, false);
+
+			} else if (response.statusCode() == 404 || response.statusCode() == 403) {
+				invalidate(uri);
+				throw new NotFoundException(uri.toString());
+
+			} else {
+				throw new IOException("Unexpected response code for " + uri + ". " + response.statusCode());
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static Optional<String> encoding(HttpResponse<?> response) {
+		return response.headers().firstValue("Content-Encoding").map(String::toLowerCase)
+				.filter(e -> !e.equals("identity"));
+	}
+
+	private Path createTempFile() throws IOException {
+		Files.createDirectories(dir);
+		return Files.createTempFile(dir, "descriptor", ".tmp");
+	}
+
+	private Path noBinaryFile(URI uri) {
+		return dir.resolve(key(uri) + ".nobin");
+	}
+
+	private Path metaFile(URI uri) {
+		return dir.resolve(key(uri) + ".properties");
+	}
+
+	/* Replaced atomically, like the body, so a reader never sees half the headers */
+	private void storeMeta(URI uri, Properties meta) throws IOException {
+		var tmp = createTempFile();
+		try {
+			try (var out = Files.newBufferedWriter(tmp)) {
+				meta.store(out, "Jaul descriptor cache");
+			}
+			Files.move(tmp, metaFile(uri), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private Optional<Properties> loadMeta(URI uri) {
+		var metaFile = metaFile(uri);
+		if (Files.exists(file(uri)) && Files.exists(metaFile)) {
+			var p = new Properties();
+			try (var in = Files.newBufferedReader(metaFile)) {
+				p.load(in);
+				if (uri.toString().equals(p.getProperty(KEY_URI)))
+					return Optional.of(p);
+			} catch (IOException ioe) {
+				Logging.warn("Ignoring corrupt descriptor cache metadata {0}.", metaFile);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static String key(URI uri) {
+		return UUID.nameUUIDFromBytes(uri.toString().getBytes(StandardCharsets.UTF_8)).toString();
+	}
+}
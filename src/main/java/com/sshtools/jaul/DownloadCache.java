@@ -0,0 +1,504 @@
+package com.sshtools.jaul;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.sshtools.jaul.Downloader.DownloaderBuilder;
+
+/**
+ * Keeps downloaded media in {@link AppRegistry#getUserData()}, keyed by
+ * SHA-256 checksum. Media is only added once it has been downloaded and
+ * verified, so anything found in the cache can be used without any network
+ * access or hashing, e.g. when the same version is installed again or rolled
+ * back to.
+ * <p>
+ * Entries are listed in an index file, so lookups need no directory scan. When
+ * the total size of the cache exceeds its budget, the least recently used
+ * entries are removed. Media without a SHA-256 checksum can't be cached, and is
+ * downloaded every time.
+ * <p>
+ * The cache may be shared by several processes, e.g. an application and its
+ * elevated installer, so the index and each entry's download are guarded by
+ * file locks as well as by locks within this process, which are shared by all
+ * instances using the same directory. Cached media is only checked by size and
+ * modification time, so anything that runs it with more rights than the user
+ * who owns the cache should first {@link #verify(Path, String)} it.
+ * <p>
+ * New media may also be rebuilt from cached older media and a downloaded
+ * {@link DeltaPatch}, see {@link #rebuild(Path, URI, String, String, String, Consumer)}.
+ */
+public final class DownloadCache {
+
+	/**
+	 * Default budget in bytes, 1 GiB unless overridden by the
+	 * <code>jaul.downloadCacheSize</code> system property.
+	 */
+	public final static long DEFAULT_BUDGET = Long.getLong("jaul.downloadCacheSize", 1024L * 1024L * 1024L);
+
+	private final static Map<Path, DownloadCache> CACHES = new ConcurrentHashMap<>();
+
+	/* File locks are held by the whole process, so threads must also agree on who holds each one */
+	private final static Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+	private final static String INDEX = "index.properties";
+	private final static String UNVERIFIED = "unverified";
+	private final static String LOCKS = "locks";
+	private final static Duration ORPHAN_AGE = Duration.ofDays(2);
+
+	/* An index entry, stored as size,lastAccess,modified,fileName */
+	private final static class Entry {
+		private final String sha256;
+		private final long size;
+		private final long lastAccess;
+		private final long modified;
+		private final String fileName;
+
+		private Entry(String sha256, long size, long lastAccess, long modified, String fileName) {
+			this.sha256 = sha256;
+			this.size = size;
+			this.lastAccess = lastAccess;
+			this.modified = modified;
+			this.fileName = fileName;
+		}
+
+		private static Optional<Entry> parse(String sha256, String value) {
+			var parts = value.split(",", 4);
+			if (parts.length != 4)
+				return Optional.empty();
+			try {
+				return Optional.of(new Entry(sha256, Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+						Long.parseLong(parts[2]), parts[3]));
+			} catch (NumberFormatException nfe) {
+				return Optional.empty();
+			}
+		}
+
+		private Entry accessed() {
+			return new Entry(sha256, size, System.currentTimeMillis(), modified, fileName);
+		}
+
+		private String value() {
+			return size + "," + lastAccess + "," + modified + "," + fileName;
+		}
+	}
+
+	private final Path dir;
+	private volatile long budget;
+
+	/**
+	 * Get the cache in {@link AppRegistry#getUserData()}.
+	 *
+	 * @return cache
+	 */
+	public static DownloadCache get() {
+		return get(AppRegistry.getUserData().resolve("downloads"));
+	}
+
+	/**
+	 * Get the cache in a directory, shared by everything in this process that
+	 * asks for the same directory, with {@link #DEFAULT_BUDGET} unless changed.
+	 *
+	 * @param dir directory
+	 * @return cache
+	 */
+	public static DownloadCache get(Path dir) {
+		return CACHES.computeIfAbsent(dir.toAbsolutePath().normalize(), d -> new DownloadCache(d, DEFAULT_BUDGET));
+	}
+
+	public DownloadCache(Path dir, long budget) {
+		this.dir = dir;
+		setBudget(budget);
+	}
+
+	public Path getDirectory() {
+		return dir;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set the maximum total size of cached media. Takes effect the next time
+	 * media is added.
+	 *
+	 * @param budget budget in bytes
+	 */
+	public void setBudget(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("Budget may not be negative.");
+		this.budget = budget;
+	}
+
+	/**
+	 * Find cached media.
+	 *
+	 * @param sha256Sum SHA-256 checksum (hex) of media
+	 * @return path to media, or empty if it is not in the cache
+	 * @throws IOException on error
+	 */
+	public Optional<Path> lookup(String sha256Sum) throws IOException {
+		var key = sha256Sum.toLowerCase();
+		synchronized (monitor(INDEX)) {
+			try (var channel = lockFile(INDEX); var lock = channel.lock()) {
+				var index = loadIndex();
+				var value = index.getProperty(key);
+				if (value == null)
+					return Optional.empty();
+
+				var entry = Entry.parse(key, value);
+				var path = entry.map(e -> dir.resolve(e.sha256).resolve(e.fileName));
+				if (entry.isEmpty() || !valid(entry.get(), path.get())) {
+					Logging.warn("Cached download {0} is missing or has been changed, removing it.", key);
+					index.remove(key);
+					delete(dir.resolve(key));
+					storeIndex(index);
+					return Optional.empty();
+				}
+
+				index.setProperty(key, entry.get().accessed().value());
+				storeIndex(index);
+				return path;
+			}
+		}
+	}
+
+	/**
+	 * Check media has the expected SHA-256 checksum, e.g. before running media
+	 * from the cache with elevated rights.
+	 *
+	 * @param path      path to media
+	 * @param sha256Sum SHA-256 checksum (hex) media must have
+	 * @throws IOException on error, including if the media does not match its
+	 *                     checksum
+	 */
+	public static void verify(Path path, String sha256Sum) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (var in = FileChannel.open(path, StandardOpenOption.READ)) {
+			var buf = ByteBuffer.allocate(65536);
+			while (in.read(buf) != -1) {
+				buf.flip();
+				digest.update(buf);
+				buf.clear();
+			}
+		}
+		var actual = UpdateDescriptor.toHex(digest.digest());
+		if (!actual.equalsIgnoreCase(sha256Sum))
+			throw new IOException(MessageFormat.format("{0} has checksum {1}, but {2} was expected.", path, actual,
+					sha256Sum));
+	}
+
+	/**
+	 * Get media, from the cache if possible, otherwise by downloading it. Media
+	 * with a SHA-256 checksum is added to the cache once downloaded.
+	 *
+	 * @param uri       uri of media
+	 * @param fileName  file name to give media
+	 * @param sha256Sum SHA-256 checksum (hex) of media, or <code>null</code> if
+	 *                  not known
+	 * @param configure configures the download, e.g. expected size, MD5 checksum
+	 *                  and progress
+	 * @return path to media
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public Path download(URI uri, String fileName, String sha256Sum, Consumer<DownloaderBuilder> configure)
+			throws IOException, InterruptedException {
+		if (sha256Sum == null || sha256Sum.isEmpty()) {
+			return locked(UNVERIFIED + "-" + fileName, () -> {
+				var target = dir.resolve(UNVERIFIED).resolve(fileName);
+				Files.createDirectories(target.getParent());
+				var builder = DownloaderBuilder.builder(uri, target);
+				configure.accept(builder);
+				return builder.build().download();
+			});
+		}
+
+		var key = sha256Sum.toLowerCase();
+		return locked(key, () -> {
+			/* Another thread or process may have just added it */
+			var cached = lookup(key);
+			if (cached.isPresent()) {
+				Logging.info("Using cached download of {0}.", uri);
+				return cached.get();
+			}
+
+			var target = dir.resolve(key).resolve(fileName);
+			Files.createDirectories(target.getParent());
+			var builder = DownloaderBuilder.builder(uri, target);
+			configure.accept(builder);
+			builder.withSha256Sum(key);
+			builder.build().download();
+
+			add(new Entry(key, Files.size(target), System.currentTimeMillis(),
+					Files.getLastModifiedTime(target).toMillis(), fileName));
+			return target;
+		});
+	}
+
+	/**
+	 * Rebuild media from older media and a patch, adding the result to the cache.
+	 * The patch is verified as it is downloaded, and the rebuilt media is verified
+	 * as it is written.
+	 *
+	 * @param base           older media, usually from {@link #lookup(String)}
+	 * @param patchUri       uri of patch
+	 * @param patchSha256Sum SHA-256 checksum (hex) of patch
+	 * @param fileName       file name to give rebuilt media
+	 * @param sha256Sum      SHA-256 checksum (hex) rebuilt media must have
+	 * @param configure      configures the download of the patch, e.g. progress
+	 * @return path to rebuilt media
+	 * @throws IOException          on error, including if the rebuilt media does
+	 *                              not match its checksum
+	 * @throws InterruptedException if interrupted
+	 */
+	public Path rebuild(Path base, URI patchUri, String patchSha256Sum, String fileName, String sha256Sum,
+			Consumer<DownloaderBuilder> configure) throws IOException, InterruptedException {
+		var key = sha256Sum.toLowerCase();
+		return locked(key, () -> {
+			var cached = lookup(key);
+			if (cached.isPresent())
+				return cached.get();
+
+			var target = dir.resolve(key).resolve(fileName);
+			Files.createDirectories(target.getParent());
+			var patchFile = target.resolveSibling(fileName + ".jdelta");
+			var rebuilt = target.resolveSibling(fileName + ".rebuilt");
+			try {
+				var builder = DownloaderBuilder.builder(patchUri, patchFile);
+				configure.accept(builder);
+				builder.withSha256Sum(patchSha256Sum);
+				builder.build().download();
+
+				MessageDigest digest;
+				try {
+					digest = MessageDigest.getInstance("SHA-256");
+				} catch (NoSuchAlgorithmException e) {
+					throw new IllegalStateException(e);
+				}
+				try (var in = Files.newInputStream(patchFile);
+						var out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(rebuilt)), digest)) {
+					DeltaPatch.apply(base, in, out);
+				}
+				var actual = UpdateDescriptor.toHex(digest.digest());
+				if (!actual.equals(key))
+					throw new IOException(MessageFormat.format("Media rebuilt from {0} has checksum {1}, but {2} was expected.",
+							patchUri, actual, key));
+
+				Staging.move(rebuilt, target);
+				Files.writeString(target.resolveSibling(fileName + ".sha256"),
+						actual + "  " + fileName + System.lineSeparator());
+			} finally {
+				Files.deleteIfExists(rebuilt);
+				Files.deleteIfExists(patchFile);
+				Files.deleteIfExists(patchFile.resolveSibling(patchFile.getFileName() + ".sha256"));
+			}
+
+			add(new Entry(key, Files.size(target), System.currentTimeMillis(),
+					Files.getLastModifiedTime(target).toMillis(), fileName));
+			return target;
+		});
+	}
+
+	/**
+	 * Remove everything from the cache.
+	 *
+	 * @throws IOException on error
+	 */
+	public void clear() throws IOException {
+		if (!Files.exists(dir))
+			return;
+		synchronized (monitor(INDEX)) {
+			try (var channel = lockFile(INDEX); var lock = channel.lock()) {
+				try (var str = Files.newDirectoryStream(dir)) {
+					for (var file : str) {
+						/* Lock files may be held by other processes */
+						if (!file.getFileName().toString().equals(LOCKS))
+							delete(file);
+					}
+				}
+			}
+		}
+	}
+
+	private void add(Entry entry) throws IOException {
+		synchronized (monitor(INDEX)) {
+			try (var channel = lockFile(INDEX); var lock = channel.lock()) {
+				var index = loadIndex();
+				index.setProperty(entry.sha256, entry.value());
+
+				var entries = new ArrayList<Entry>();
+				var total = 0L;
+				for (var key : index.stringPropertyNames()) {
+					var e = Entry.parse(key, index.getProperty(key));
+					if (e.isPresent()) {
+						entries.add(e.get());
+						total += e.get().size;
+					} else {
+						index.remove(key);
+					}
+				}
+
+				if (total > budget) {
+					entries.sort(Comparator.comparingLong(e -> e.lastAccess));
+					for (var e : entries) {
+						if (total <= budget)
+							break;
+						if (e.sha256.equals(entry.sha256))
+							continue;
+						Logging.info("Evicting {0} ({1} bytes) from download cache.", e.fileName, e.size);
+						try {
+							delete(dir.resolve(e.sha256));
+						} catch (IOException ioe) {
+							/* e.g. an installer that is still running on Windows */
+							Logging.warn("Could not evict {0} from download cache, keeping it. {1}", e.fileName,
+									ioe.getMessage());
+							continue;
+						}
+						index.remove(e.sha256);
+						total -= e.size;
+					}
+					removeOrphans(index);
+				}
+				storeIndex(index);
+			}
+		}
+	}
+
+	/*
+	 * Partial downloads that were never completed are not in the index, so are only
+	 * found by scanning. This is only done when evicting. Only the partial files are
+	 * removed, and only once untouched for a while, as another process may still be
+	 * downloading. Unverified downloads are left alone, they are replaced each time.
+	 */
+	private void removeOrphans(Properties index) throws IOException {
+		var maxAge = Instant.now().minus(ORPHAN_AGE);
+		try (var str = Files.newDirectoryStream(dir, Files::isDirectory)) {
+			for (var entryDir : str) {
+				var name = entryDir.getFileName().toString();
+				if (name.equals(UNVERIFIED) || name.equals(LOCKS) || index.containsKey(name))
+					continue;
+				try (var files = Files.newDirectoryStream(entryDir)) {
+					for (var file : files) {
+						var fileName = file.getFileName().toString();
+						if ((fileName.endsWith(".part") || fileName.endsWith(".part.properties"))
+								&& Files.getLastModifiedTime(file).toInstant().isBefore(maxAge)) {
+							Logging.info("Removing abandoned partial download {0}.", file);
+							Files.deleteIfExists(file);
+						}
+					}
+				}
+				try {
+					Files.deleteIfExists(entryDir);
+				} catch (DirectoryNotEmptyException dnee) {
+					/* Still has recent partial files */
+				}
+			}
+		}
+	}
+
+	/*
+	 * Run a task while holding the lock for one entry, both between threads of this
+	 * process (file locks are held by the whole process) and between processes.
+	 */
+	private <T> T locked(String name, Task<T> task) throws IOException, InterruptedException {
+		synchronized (monitor(name)) {
+			try (var channel = lockFile(name); var lock = channel.lock()) {
+				return task.run();
+			}
+		}
+	}
+
+	private Object monitor(String name) {
+		return MONITORS.computeIfAbsent(lockPath(name).toAbsolutePath().normalize(), k -> new Object());
+	}
+
+	/* Lock files are never deleted, as another process may be waiting on one */
+	private FileChannel lockFile(String name) throws IOException {
+		var file = lockPath(name);
+		Files.createDirectories(file.getParent());
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private Path lockPath(String name) {
+		return dir.resolve(LOCKS).resolve(name + ".lock");
+	}
+
+	@FunctionalInterface
+	private interface Task<T> {
+		T run() throws IOException, InterruptedException;
+	}
+
+	private boolean valid(Entry entry, Path path) {
+		try {
+			return Files.size(path) == entry.size
+					&& Files.getLastModifiedTime(path).toMillis() == entry.modified;
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	private Properties loadIndex() throws IOException {
+		var props = new Properties();
+		var file = dir.resolve(INDEX);
+		if (Files.exists(file)) {
+			try (var in = Files.newBufferedReader(file)) {
+				props.load(in);
+			} catch (IllegalArgumentException iae) {
+				Logging.warn("Download cache index is corrupt, starting a new one.");
+				props.clear();
+			}
+		}
+		return props;
+	}
+
+	private void storeIndex(Properties props) throws IOException {
+		Files.createDirectories(dir);
+		var tmp = Files.createTempFile(dir, "index", ".tmp");
+		try {
+			try (var out = Files.newBufferedWriter(tmp)) {
+				props.store(out, "Jaul download cache");
+			}
+			Files.move(tmp, dir.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			try (var str = Files.newDirectoryStream(path)) {
+				for (var file : str) {
+					delete(file);
+				}
+			}
+		}
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,134 @@
+package com.sshtools.jaul;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import com.sshtools.jaul.UpdateService.DownloadEvent;
+import com.sshtools.jaul.UpdateService.DownloadEvent.Type;
+
+/**
+ * Delivers {@link DownloadEvent}s to listeners on its own thread, so a slow
+ * listener (e.g. a UI) never holds up the download producing them.
+ * <p>
+ * Progress events are coalesced. Any not yet delivered are replaced by the
+ * latest, at most a fixed number are delivered per second, and events that
+ * change neither the percentage nor the message are dropped. Start and end
+ * events are always delivered, in order, including across {@link #close()}.
+ */
+final class DownloadEventDispatcher {
+
+	/**
+	 * Default maximum progress events per second, 10 unless overridden by the
+	 * <code>jaul.downloadEventRate</code> system property.
+	 */
+	final static int DEFAULT_RATE = Integer.getInteger("jaul.downloadEventRate", 10);
+
+	private final ArrayDeque<DownloadEvent> queue = new ArrayDeque<>();
+	private final Consumer<DownloadEvent> sink;
+	private final long interval;
+	/* Held while delivering, so a thread replaced by close() finishes before the next delivers */
+	private final Object delivery = new Object();
+
+	private Thread thread;
+
+	DownloadEventDispatcher(Consumer<DownloadEvent> sink) {
+		this(DEFAULT_RATE, sink);
+	}
+
+	DownloadEventDispatcher(int rate, Consumer<DownloadEvent> sink) {
+		if (rate < 1)
+			throw new IllegalArgumentException("Rate must be at least 1.");
+		this.sink = sink;
+		this.interval = 1000 / rate;
+	}
+
+	/**
+	 * Queue an event for delivery. Never blocks.
+	 *
+	 * @param event event
+	 */
+	synchronized void dispatch(DownloadEvent event) {
+		if (event.getType() == Type.PROGRESS && !queue.isEmpty() && queue.peekLast().getType() == Type.PROGRESS)
+			queue.pollLast();
+		queue.add(event);
+		if (thread == null) {
+			thread = new Thread(this::run, "JaulDownloadEvents");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Stop delivering events, discarding any not yet delivered. Events
+	 * dispatched afterwards start a new thread.
+	 */
+	void close() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+			queue.clear();
+		}
+		if (t != null)
+			t.interrupt();
+	}
+
+	private void run() {
+		/* Only used by this thread, a new thread starts afresh */
+		var nextProgress = 0L;
+		DownloadEvent lastProgress = null;
+		try {
+			while (true) {
+				DownloadEvent event;
+				synchronized (this) {
+					if (thread != Thread.currentThread())
+						return;
+					if (queue.isEmpty()) {
+						wait();
+						continue;
+					}
+					if (queue.peekFirst().getType() == Type.PROGRESS) {
+						var delay = nextProgress - System.currentTimeMillis();
+						if (delay > 0) {
+							/* The event may be replaced by a newer one meanwhile */
+							wait(delay);
+							continue;
+						}
+					}
+					event = queue.pollFirst();
+				}
+
+				if (event.getType() == Type.PROGRESS) {
+					if (!changed(lastProgress, event))
+						continue;
+					lastProgress = event;
+					nextProgress = System.currentTimeMillis() + interval;
+				} else {
+					lastProgress = null;
+				}
+
+				synchronized (delivery) {
+					synchronized (this) {
+						if (thread != Thread.currentThread())
+							return;
+					}
+					try {
+						sink.accept(event);
+					} catch (RuntimeException re) {
+						Logging.error("Download listener failed.", re);
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+		}
+	}
+
+	private static boolean changed(DownloadEvent lastProgress, DownloadEvent event) {
+		return lastProgress == null || lastProgress.getValue() != event.getValue()
+				|| !Objects.equals(lastProgress.getMessage(), event.getMessage())
+				/* Without a percentage, the detail is all that shows progress */
+				|| (event.getValue() < 0 && !Objects.equals(lastProgress.getDetail(), event.getDetail()));
+	}
+}
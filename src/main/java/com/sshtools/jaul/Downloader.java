@@ -0,0 +1,852 @@
+package com.sshtools.jaul;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Downloads a single file over HTTP, resuming where a previous attempt left
+ * off. Data is written to <code>&lt;target&gt;.part</code>, with the
+ * validators (ETag or Last-Modified) of the response kept alongside in
+ * <code>&lt;target&gt;.part.properties</code>. If the connection drops, the
+ * request is reissued with <code>Range</code> and <code>If-Range</code>
+ * headers, either immediately (up to the number of retries) or on the next
+ * call for the same target. The server will send the whole file again if it
+ * has changed in the meantime.
+ * <p>
+ * Large files are fetched as several byte ranges at once, when the server
+ * advertises <code>Accept-Ranges: bytes</code>. Each segment writes directly
+ * into its own region of the pre-sized part file, so there is nothing to
+ * reassemble afterwards, and each resumes independently. Servers that do not
+ * support ranges are downloaded as a single stream.
+ * <p>
+ * The target is only created once the download is complete and, if known,
+ * matches the expected size and checksum. The checksum is calculated as data
+ * arrives, so the file need not be read again afterwards. Once verified, the
+ * digest is recorded in <code>&lt;target&gt;.sha256</code> (or
+ * <code>.md5</code>), in the same format as <code>sha256sum</code>, so a
+ * later download of the same file can use it without hashing it again.
+ * <p>
+ * The same file may be available from mirrors. The fastest server is used,
+ * and if it fails the download continues from the next, using a range request
+ * for the rest of the file. Data from different servers is only combined when
+ * a checksum is known, otherwise the download starts again.
+ * <p>
+ * A download may be stopped by interrupting the thread that started it, or by
+ * {@link Progress} interrupting the thread it is called on. What has been
+ * downloaded so far is kept, and resumed by the next download of the same
+ * target.
+ */
+public final class Downloader {
+
+	/**
+	 * Receives progress as data arrives.
+	 */
+	@FunctionalInterface
+	public interface Progress {
+		/**
+		 * Called as data is written, including once before any data arrives when
+		 * resuming.
+		 *
+		 * @param transferred total bytes in the file so far, including any resumed
+		 * @param total       total expected size of the file, or -1 if unknown
+		 */
+		void progress(long transferred, long total);
+	}
+
+	public final static class DownloaderBuilder {
+		private final URI uri;
+		private final Path target;
+		private long expectedSize = -1;
+		private int retries = 3;
+		private int segments = 4;
+		private long minimumSegmentSize = 8 * 1024 * 1024;
+		private Optional<Progress> progress = Optional.empty();
+		private Optional<RateLimiter> rateLimiter = Optional.empty();
+		private List<URI> mirrors = new ArrayList<>();
+		private Optional<String> sha256Sum = Optional.empty();
+		private Optional<String> md5Sum = Optional.empty();
+
+		public static DownloaderBuilder builder(URI uri, Path target) {
+			return new DownloaderBuilder(uri, target);
+		}
+
+		private DownloaderBuilder(URI uri, Path target) {
+			this.uri = uri;
+			this.target = target;
+		}
+
+		/**
+		 * Size the complete file must be, usually from the update descriptor. Zero
+		 * or less means the size is not known, and will not be checked.
+		 *
+		 * @param expectedSize expected size
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withExpectedSize(long expectedSize) {
+			this.expectedSize = expectedSize;
+			return this;
+		}
+
+		/**
+		 * How many times to resume after a failed transfer before giving up. The
+		 * partial file is kept, so a later download may still resume it.
+		 *
+		 * @param retries retries
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withRetries(int retries) {
+			if (retries < 0)
+				throw new IllegalArgumentException("Retries may not be negative.");
+			this.retries = retries;
+			return this;
+		}
+
+		/**
+		 * Maximum number of byte ranges to download at once. A value of 1 always uses
+		 * a single stream.
+		 *
+		 * @param segments segments
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withSegments(int segments) {
+			if (segments < 1)
+				throw new IllegalArgumentException("Must have at least one segment.");
+			this.segments = segments;
+			return this;
+		}
+
+		/**
+		 * Smallest range worth fetching separately. Files smaller than twice this
+		 * are downloaded as a single stream, and larger files use fewer segments if
+		 * needed to keep each one at least this size.
+		 *
+		 * @param minimumSegmentSize minimum segment size in bytes
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withMinimumSegmentSize(long minimumSegmentSize) {
+			if (minimumSegmentSize < 1)
+				throw new IllegalArgumentException("Minimum segment size must be positive.");
+			this.minimumSegmentSize = minimumSegmentSize;
+			return this;
+		}
+
+		/**
+		 * SHA-256 checksum (hex) the complete file must have. Takes precedence over
+		 * {@link #withMd5Sum(String)}. A <code>null</code> or empty value is
+		 * ignored.
+		 *
+		 * @param sha256Sum checksum
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withSha256Sum(String sha256Sum) {
+			this.sha256Sum = checksum(sha256Sum);
+			return this;
+		}
+
+		/**
+		 * MD5 checksum (hex) the complete file must have, used if there is no
+		 * SHA-256 checksum. A <code>null</code> or empty value is ignored.
+		 *
+		 * @param md5Sum checksum
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withMd5Sum(String md5Sum) {
+			this.md5Sum = checksum(md5Sum);
+			return this;
+		}
+
+		public DownloaderBuilder withProgress(Progress progress) {
+			this.progress = Optional.of(progress);
+			return this;
+		}
+
+		/**
+		 * Other locations the same file may be downloaded from. All locations are
+		 * ranked by {@link Mirrors} before downloading, and if the server being used
+		 * fails, the download continues from the next one.
+		 *
+		 * @param mirrors mirror locations
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withMirrors(List<URI> mirrors) {
+			this.mirrors.addAll(mirrors);
+			return this;
+		}
+
+		/**
+		 * Limit the rate of the download. The limiter may be shared with other
+		 * downloads.
+		 *
+		 * @param rateLimiter rate limiter
+		 * @return this for chaining
+		 */
+		public DownloaderBuilder withRateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = Optional.of(rateLimiter);
+			return this;
+		}
+
+		public Downloader build() {
+			return new Downloader(this);
+		}
+
+		private static Optional<String> checksum(String hex) {
+			if (hex == null || hex.isEmpty())
+				return Optional.empty();
+			UpdateDescriptor.fromHex(hex);
+			return Optional.of(hex.toLowerCase());
+		}
+	}
+
+	private final static Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+	private final static String KEY_URI = "uri";
+	private final static String KEY_SOURCE = "source";
+	private final static String KEY_ETAG = "etag";
+	private final static String KEY_LAST_MODIFIED = "lastModified";
+	private final static String KEY_LENGTH = "length";
+	private final static String KEY_SEGMENTS = "segments";
+
+	/* A byte range of the file, end exclusive */
+	private final static class Segment {
+		private final long start;
+		private final long end;
+		private volatile long position;
+
+		private Segment(long start, long end, long position) {
+			this.start = start;
+			this.end = end;
+			this.position = position;
+		}
+
+		private boolean done() {
+			return position >= end;
+		}
+	}
+
+	private final URI uri;
+	private final List<URI> mirrors;
+	private final Path target;
+	private final Path part;
+	private final Path meta;
+	private final long expectedSize;
+	private final int retries;
+	private final int segments;
+	private final long minimumSegmentSize;
+	private final Optional<Progress> progress;
+	private final Optional<RateLimiter> rateLimiter;
+	private final Optional<String> algorithm;
+	private final Optional<String> checksum;
+	private final Path record;
+
+	/* Where the file is currently being downloaded from, the first is the fastest */
+	private List<URI> sources;
+	private int current;
+
+	/* Digest of the first 'digested' bytes of the part file */
+	private MessageDigest digest;
+	private long digested;
+
+	private Downloader(DownloaderBuilder builder) {
+		this.uri = builder.uri;
+		this.mirrors = new ArrayList<>(builder.mirrors);
+		this.target = builder.target;
+		this.expectedSize = builder.expectedSize;
+		this.retries = builder.retries;
+		this.segments = builder.segments;
+		this.minimumSegmentSize = builder.minimumSegmentSize;
+		this.progress = builder.progress;
+		this.rateLimiter = builder.rateLimiter;
+		this.part = target.resolveSibling(target.getFileName() + ".part");
+		this.meta = target.resolveSibling(target.getFileName() + ".part.properties");
+		if (builder.sha256Sum.isPresent()) {
+			algorithm = Optional.of("SHA-256");
+			checksum = builder.sha256Sum;
+			record = target.resolveSibling(target.getFileName() + ".sha256");
+		} else if (builder.md5Sum.isPresent()) {
+			algorithm = Optional.of("MD5");
+			checksum = builder.md5Sum;
+			record = target.resolveSibling(target.getFileName() + ".md5");
+		} else {
+			algorithm = Optional.empty();
+			checksum = Optional.empty();
+			record = null;
+		}
+	}
+
+	public Path target() {
+		return target;
+	}
+
+	/**
+	 * Get if the target has already been downloaded, and has a recorded checksum
+	 * that matches the one expected. Always <code>false</code> if no checksum was
+	 * provided.
+	 *
+	 * @return verified
+	 */
+	public boolean verified() {
+		if (checksum.isEmpty() || !Files.exists(target) || !Files.exists(record))
+			return false;
+		try {
+			if (expectedSize > 0 && Files.size(target) != expectedSize)
+				return false;
+			/* If the target was changed after it was verified, the record can't be trusted */
+			if (Files.getLastModifiedTime(record).compareTo(Files.getLastModifiedTime(target)) < 0)
+				return false;
+			var recorded = Files.readString(record).trim().split("\\s+")[0];
+			return recorded.equalsIgnoreCase(checksum.get());
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Download the file, resuming any previous partial download of the same URI.
+	 * Nothing is downloaded if the target has already been {@link #verified()}.
+	 *
+	 * @return target
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public Path download() throws IOException, InterruptedException {
+		if (verified()) {
+			Logging.info("{0} has already been downloaded and verified.", target);
+			var size = Files.size(target);
+			progress.ifPresent(p -> p.progress(size, size));
+			return target;
+		}
+
+		digest = null;
+		digested = 0;
+		current = 0;
+		if (mirrors.isEmpty()) {
+			sources = new ArrayList<>(List.of(uri));
+		} else {
+			var all = new ArrayList<URI>();
+			all.add(uri);
+			all.addAll(mirrors);
+			sources = new ArrayList<>(Mirrors.get().rank(all));
+			if (!source().equals(uri))
+				Logging.info("Downloading {0} from {1}.", uri, source());
+		}
+
+		var segmented = false;
+		if (segments > 1) {
+			try {
+				segmented = transferSegmented();
+			} catch (IOException ioe) {
+				if (sources.size() < 2)
+					throw ioe;
+				var failed = source();
+				collapse();
+				nextSource();
+				Logging.warn("Segmented download from {0} failed, continuing from {1}. {2}", failed, source(),
+						ioe.getMessage());
+			}
+		}
+		if (!segmented) {
+			var attempt = 0;
+			while (true) {
+				try {
+					transfer();
+					break;
+				} catch (ResponseException re) {
+					if (sources.size() < 2)
+						throw re.getCause();
+					var failed = source();
+					sources.remove(current);
+					current = current % sources.size();
+					Logging.warn("Download from {0} failed, trying {1}. {2}", failed, source(),
+							re.getCause().getMessage());
+				} catch (IOException ioe) {
+					if (Thread.interrupted())
+						throw new InterruptedException();
+					if (attempt++ >= retries * sources.size())
+						throw ioe;
+					if (sources.size() > 1) {
+						var failed = source();
+						nextSource();
+						Logging.warn("Download from {0} interrupted at {1} bytes, resuming from {2}. {3}", failed,
+								size(part), source(), ioe.getMessage());
+					} else {
+						Logging.warn("Download of {0} interrupted at {1} bytes, resuming. {2}", uri, size(part),
+								ioe.getMessage());
+					}
+				}
+			}
+		}
+
+		var size = Files.size(part);
+		if (expectedSize > 0 && size != expectedSize) {
+			clean();
+			throw new IOException(MessageFormat.format("Downloaded {0} is {1} bytes, but {2} bytes were expected.",
+					uri, size, expectedSize));
+		}
+
+		var actual = verify(size);
+		if (record != null)
+			Files.deleteIfExists(record);
+		Staging.move(part, target);
+		Files.deleteIfExists(meta);
+		if (actual.isPresent()) {
+			Files.writeString(record, actual.get() + "  " + target.getFileName() + System.lineSeparator());
+		}
+		return target;
+	}
+
+	/* Check the digest of the complete part file, returning the verified hex digest */
+	private Optional<String> verify(long size) throws IOException {
+		if (algorithm.isEmpty())
+			return Optional.empty();
+		digestTo(size);
+		var actual = UpdateDescriptor.toHex(digest.digest());
+		if (!actual.equalsIgnoreCase(checksum.get())) {
+			clean();
+			throw new IOException(MessageFormat.format("Downloaded {0} has {1} checksum {2}, but {3} was expected.",
+					uri, algorithm.get(), actual, checksum.get()));
+		}
+		return Optional.of(actual);
+	}
+
+	/*
+	 * Make sure the digest covers exactly the first 'size' bytes of the part file,
+	 * reading from the file only what was not seen as it was downloaded. This is
+	 * the part resumed from a previous call, or the whole file for segmented
+	 * downloads, whose ranges do not arrive in order.
+	 */
+	private void digestTo(long size) throws IOException {
+		if (digest == null || digested > size) {
+			try {
+				digest = MessageDigest.getInstance(algorithm.get());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			digested = 0;
+		}
+		if (digested < size) {
+			try (var in = FileChannel.open(part, StandardOpenOption.READ)) {
+				var buf = ByteBuffer.allocate(65536);
+				in.position(digested);
+				while (digested < size) {
+					buf.clear().limit((int) Math.min(buf.capacity(), size - digested));
+					var r = in.read(buf);
+					if (r == -1)
+						throw new EOFException();
+					buf.flip();
+					digest.update(buf);
+					digested += r;
+				}
+			}
+		}
+	}
+	private void transfer() throws IOException, InterruptedException {
+		var transport = HttpTransport.get();
+		var request = transport.request(source()).GET();
+		var state = readMeta().filter(props -> !props.containsKey(KEY_SEGMENTS));
+		var ifRange = state.flatMap(this::ifRange);
+		/*
+		 * Data from a different server can only be trusted if the checksum will be
+		 * verified, as its validators mean nothing to this one
+		 */
+		var offset = state.isPresent() && (ifRange.isPresent() || algorithm.isPresent()) ? Files.size(part) : 0;
+		if (offset > 0) {
+			if (expectedSize > 0 && offset >= expectedSize) {
+				/* Part is already complete (or too big to be right), check it */
+				return;
+			}
+			request.header("Range", "bytes=" + offset + "-");
+			ifRange.ifPresent(v -> request.header("If-Range", v));
+			Logging.info("Resuming download of {0} from {1} bytes.", source(), offset);
+		}
+
+		HttpResponse<InputStream> response = transport.send(request.build(), BodyHandlers.ofInputStream());
+		try (var in = response.body()) {
+			var status = response.statusCode();
+			if (status == 206) {
+				var range = response.headers().firstValue("Content-Range").map(CONTENT_RANGE::matcher).orElse(null);
+				if (range == null || !range.matches() || Long.parseLong(range.group(1)) != offset) {
+					clean();
+					throw new IOException(MessageFormat.format(
+							"Server sent an unexpected range for {0}, discarding partial download.", source()));
+				}
+				if (ifRange.isEmpty())
+					writeMeta(response);
+			} else if (status == 200) {
+				offset = 0;
+				digest = null;
+				writeMeta(response);
+			} else if (status == 416) {
+				/* Our partial file is no good to the server, start again */
+				clean();
+				throw new IOException(MessageFormat.format("Range not satisfiable for {0}.", source()));
+			} else {
+				throw new ResponseException(
+						new IOException(MessageFormat.format("Unexpected response code for {0}. {1}", source(), status)));
+			}
+
+			var total = total(response, offset);
+			try (var out = offset == 0
+					? FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)
+					: FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				if (algorithm.isPresent())
+					digestTo(offset);
+				var transferred = offset;
+				if (progress.isPresent())
+					progress.get().progress(transferred, total);
+				var buf = new byte[65536];
+				var wrap = ByteBuffer.wrap(buf);
+				int r;
+				while ((r = in.read(buf)) != -1) {
+					wrap.clear().limit(r);
+					while (wrap.hasRemaining())
+						out.write(wrap);
+					if (digest != null) {
+						digest.update(buf, 0, r);
+						digested += r;
+					}
+					transferred += r;
+					if (rateLimiter.isPresent())
+						rateLimiter.get().acquire(r);
+					if (progress.isPresent())
+						progress.get().progress(transferred, total);
+					if (Thread.interrupted())
+						throw new InterruptedException();
+				}
+			}
+		}
+	}
+
+	private long total(HttpResponse<?> response, long offset) {
+		if (expectedSize > 0)
+			return expectedSize;
+		var len = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		return len < 0 ? -1 : len + offset;
+	}
+
+	/**
+	 * Download segments in parallel if the server supports it.
+	 *
+	 * @return <code>false</code> if a single stream should be used instead
+	 */
+	private boolean transferSegmented() throws IOException, InterruptedException {
+		if (readMeta().filter(props -> props.containsKey(KEY_SEGMENTS)).isPresent() && segmentState().isEmpty()) {
+			/* Segments from another server, or that can't be resumed */
+			collapse();
+			return false;
+		}
+
+		var state = segmentState();
+		String validator;
+		long length;
+		if (state.isPresent()) {
+			var props = state.get();
+			validator = validator(props).get();
+			length = Long.parseLong(props.getProperty(KEY_LENGTH));
+		} else if (expectedSize > 0 && expectedSize < minimumSegmentSize * 2) {
+			/* Known to be too small, don't bother asking the server */
+			return false;
+		} else {
+			var transport = HttpTransport.get();
+			var response = transport.send(transport.request(source()).method("HEAD", BodyPublishers.noBody()).build(),
+					BodyHandlers.discarding());
+			var headers = response.headers();
+			length = headers.firstValueAsLong("Content-Length").orElse(-1);
+			var v = validator(headers.firstValue("ETag").orElse(null),
+					headers.firstValue("Last-Modified").orElse(null));
+			if (response.statusCode() != 200 || !headers.allValues("Accept-Ranges").contains("bytes") || v.isEmpty()
+					|| length < minimumSegmentSize * 2 || (expectedSize > 0 && length != expectedSize)) {
+				return false;
+			}
+			validator = v.get();
+		}
+
+		var ranges = state.isPresent() ? segments(state.get()) : split(length);
+		if (state.isEmpty()) {
+			try (var raf = new RandomAccessFile(part.toFile(), "rw")) {
+				raf.setLength(length);
+			}
+			writeMeta(validator, length, ranges);
+		} else {
+			Logging.info("Resuming segmented download of {0}.", source());
+		}
+
+		var transferred = new AtomicLong();
+		for (var seg : ranges) {
+			transferred.addAndGet(seg.position - seg.start);
+		}
+		progress.ifPresent(p -> p.progress(transferred.get(), length));
+
+		var threads = new AtomicInteger();
+		var executor = Executors.newFixedThreadPool(ranges.size(), r -> {
+			var t = new Thread(r, "JaulSegment-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try (var out = FileChannel.open(part, StandardOpenOption.WRITE)) {
+			var completion = new ExecutorCompletionService<Void>(executor);
+			for (var seg : ranges) {
+				completion.submit(() -> {
+					fetch(seg, validator, out, transferred, length);
+					return null;
+				});
+			}
+			for (int i = 0; i < ranges.size(); i++) {
+				try {
+					completion.take().get();
+				} catch (ExecutionException ee) {
+					/* Stop the other segments as soon as any one fails */
+					executor.shutdownNow();
+					executor.awaitTermination(10, TimeUnit.SECONDS);
+					if (ee.getCause() instanceof ResponseException) {
+						Logging.warn("Segmented download of {0} failed, using a single stream. {1}", source(),
+								ee.getCause().getMessage());
+						clean();
+						return false;
+					}
+					writeMeta(validator, length, ranges);
+					if (ee.getCause() instanceof IOException)
+						throw (IOException) ee.getCause();
+					throw new IOException("Segmented download failed.", ee.getCause());
+				}
+			}
+		} catch (InterruptedException ie) {
+			executor.shutdownNow();
+			writeMeta(validator, length, ranges);
+			throw ie;
+		} finally {
+			executor.shutdown();
+		}
+		return true;
+	}
+
+	private void fetch(Segment seg, String validator, FileChannel out, AtomicLong transferred, long length)
+			throws IOException, InterruptedException {
+		var transport = HttpTransport.get();
+		var buf = ByteBuffer.allocate(65536);
+		var attempt = 0;
+		while (!seg.done()) {
+			try {
+				var request = transport.request(source()).GET().header("Range", "bytes=" + seg.position + "-" + (seg.end - 1))
+						.header("If-Range", validator).build();
+				HttpResponse<InputStream> response = transport.send(request, BodyHandlers.ofInputStream());
+				try (var in = response.body()) {
+					var range = response.headers().firstValue("Content-Range").map(CONTENT_RANGE::matcher)
+							.orElse(null);
+					if (response.statusCode() != 206 || range == null || !range.matches()
+							|| Long.parseLong(range.group(1)) != seg.position) {
+						/* Most likely the file changed, the whole thing will need to be downloaded again */
+						throw new ResponseException(new IOException(MessageFormat
+								.format("Server did not send the range requested for {0}. {1}", source(), response.statusCode())));
+					}
+					int r;
+					while (!seg.done() && (r = in.read(buf.array(), 0, (int) Math.min(buf.capacity(), seg.end - seg.position))) != -1) {
+						buf.clear().limit(r);
+						var pos = seg.position;
+						while (buf.hasRemaining())
+							pos += out.write(buf, pos);
+						seg.position = pos;
+						var t = transferred.addAndGet(r);
+						if (rateLimiter.isPresent())
+							rateLimiter.get().acquire(r);
+						if (progress.isPresent()) {
+							synchronized (progress) {
+								progress.get().progress(t, length);
+							}
+						}
+						if (Thread.interrupted())
+							throw new InterruptedException();
+					}
+					if (!seg.done())
+						throw new EOFException(MessageFormat.format("Range of {0} ended early.", source()));
+				}
+			} catch (ResponseException re) {
+				throw re;
+			} catch (IOException ioe) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				if (attempt++ >= retries)
+					throw ioe;
+				Logging.warn("Segment of {0} interrupted at {1} bytes, resuming. {2}", source(), seg.position,
+						ioe.getMessage());
+			}
+		}
+	}
+
+	private List<Segment> split(long length) {
+		var count = (int) Math.max(1, Math.min(segments, length / minimumSegmentSize));
+		var size = length / count;
+		var ranges = new ArrayList<Segment>(count);
+		for (int i = 0; i < count; i++) {
+			var start = i * size;
+			ranges.add(new Segment(start, i == count - 1 ? length : start + size, start));
+		}
+		return ranges;
+	}
+
+	private List<Segment> segments(Properties props) {
+		var ranges = new ArrayList<Segment>();
+		for (var seg : props.getProperty(KEY_SEGMENTS).split(";")) {
+			var parts = seg.split(",");
+			ranges.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+		}
+		return ranges;
+	}
+
+	/* State of a previous segmented download from the current server that may be resumed */
+	private Optional<Properties> segmentState() throws IOException {
+		return readMeta().filter(props -> props.containsKey(KEY_SEGMENTS) && props.containsKey(KEY_LENGTH)
+				&& ifRange(props).isPresent() && Long.parseLong(props.getProperty(KEY_LENGTH)) == size(part));
+	}
+
+	/* The If-Range validator to use, only if the partial download came from the current server */
+	private Optional<String> ifRange(Properties props) {
+		if (!source().toString().equals(props.getProperty(KEY_SOURCE, props.getProperty(KEY_URI))))
+			return Optional.empty();
+		return validator(props);
+	}
+
+	/*
+	 * Turn a partial segmented download into a partial single stream download,
+	 * keeping the data before the first gap
+	 */
+	private void collapse() throws IOException {
+		var state = readMeta().filter(props -> props.containsKey(KEY_SEGMENTS));
+		if (state.isEmpty())
+			return;
+		var ranges = segments(state.get());
+		ranges.sort((s1, s2) -> Long.compare(s1.start, s2.start));
+		var prefix = 0L;
+		for (var seg : ranges) {
+			if (seg.start != prefix)
+				break;
+			prefix = seg.position;
+			if (!seg.done())
+				break;
+		}
+		if (prefix == 0 || algorithm.isEmpty()) {
+			clean();
+			return;
+		}
+		try (var ch = FileChannel.open(part, StandardOpenOption.WRITE)) {
+			ch.truncate(prefix);
+		}
+		digest = null;
+		digested = 0;
+		var props = new Properties();
+		props.setProperty(KEY_URI, uri.toString());
+		props.setProperty(KEY_SOURCE, state.get().getProperty(KEY_SOURCE, uri.toString()));
+		storeMeta(props);
+	}
+
+	private URI source() {
+		return sources.get(current);
+	}
+
+	private void nextSource() {
+		current = (current + 1) % sources.size();
+	}
+
+	private Optional<Properties> readMeta() throws IOException {
+		if (!Files.exists(part) || !Files.exists(meta))
+			return Optional.empty();
+		var props = new Properties();
+		try (var in = Files.newBufferedReader(meta)) {
+			props.load(in);
+		} catch (IllegalArgumentException iae) {
+			return Optional.empty();
+		}
+		if (!uri.toString().equals(props.getProperty(KEY_URI)))
+			return Optional.empty();
+		return Optional.of(props);
+	}
+
+	private static Optional<String> validator(Properties props) {
+		return validator(props.getProperty(KEY_ETAG), props.getProperty(KEY_LAST_MODIFIED));
+	}
+
+	/* If-Range requires a strong validator, so weak ETags can't be used */
+	private static Optional<String> validator(String etag, String lastModified) {
+		if (etag != null && !etag.startsWith("W/"))
+			return Optional.of(etag);
+		return Optional.ofNullable(lastModified);
+	}
+
+	private void writeMeta(HttpResponse<?> response) throws IOException {
+		var props = new Properties();
+		props.setProperty(KEY_URI, uri.toString());
+		props.setProperty(KEY_SOURCE, source().toString());
+		response.headers().firstValue("ETag").ifPresent(v -> props.setProperty(KEY_ETAG, v));
+		response.headers().firstValue("Last-Modified").ifPresent(v -> props.setProperty(KEY_LAST_MODIFIED, v));
+		storeMeta(props);
+	}
+
+	private void writeMeta(String validator, long length, List<Segment> ranges) throws IOException {
+		var props = new Properties();
+		props.setProperty(KEY_URI, uri.toString());
+		props.setProperty(KEY_SOURCE, source().toString());
+		props.setProperty(validator.startsWith("\"") ? KEY_ETAG : KEY_LAST_MODIFIED, validator);
+		props.setProperty(KEY_LENGTH, String.valueOf(length));
+		props.setProperty(KEY_SEGMENTS, ranges.stream().map(seg -> seg.start + "," + seg.end + "," + seg.position)
+				.collect(Collectors.joining(";")));
+		storeMeta(props);
+	}
+
+	private void storeMeta(Properties props) throws IOException {
+		try (var out = Files.newBufferedWriter(meta)) {
+			props.store(out, "Jaul partial download");
+		}
+	}
+
+	private void clean() throws IOException {
+		Files.deleteIfExists(part);
+		Files.deleteIfExists(meta);
+	}
+
+	private static long size(Path path) {
+		try {
+			return Files.size(path);
+		} catch (IOException ioe) {
+			return 0;
+		}
+	}
+
+	/* A response the server has made deliberately, retrying won't help */
+	@SuppressWarnings("serial")
+	private final static class ResponseException extends IOException {
+		ResponseException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package com.sshtools.jaul;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.install4j.api.Util;
+import com.sshtools.jaul.AppRegistry.Scope;
+
+/**
+ * Stores registry entries in a single file for each scope, as a log of changes.
+ * The file header is memory mapped, so telling if another process has changed
+ * the registry needs no system calls, and the log is only read again when it
+ * has. Otherwise all reads are served from memory.
+ * <p>
+ * Changes are appended to the log, and only become visible once the header is
+ * updated, so a change that is interrupted is simply lost. Once the log
+ * contains more replaced or removed entries than current ones, it is compacted
+ * by writing the current entries to unused space and pointing the header at
+ * them. Changes are made while holding an exclusive lock on the file, and the
+ * log is read while holding a shared lock, so any number of processes may use
+ * the same file.
+ * <p>
+ * Layout (all integers are big endian) :-
+ * <pre>
+ * magic      4 bytes 'J' 'R' 'E' 'G'
+ * version    4 bytes
+ * generation 8 bytes, incremented on every change
+ * offset     8 bytes, position of log
+ * length     8 bytes, length of log
+ * ...        log and unused space, each log record :-
+ *              length   4 bytes, of the rest of the record after the checksum
+ *              checksum 4 bytes, CRC32
+ *              type     1 byte, 1 to add or replace an entry, 2 to remove
+ *              id       string
+ *              count    2 bytes, number of properties (type 1 only)
+ *              for each property, key and value strings
+ * </pre>
+ * Strings are stored as a 2 byte length and UTF-8 bytes.
+ * <p>
+ * May be run to migrate the registry from {@link PreferencesRegistryBackend},
+ * e.g. <code>java com.sshtools.jaul.FileRegistryBackend user system</code>.
+ * <p>
+ * File locks are held on behalf of the whole runtime, so all instances using
+ * the same file share one open channel and header mapping, which are kept
+ * until the runtime exits.
+ */
+public final class FileRegistryBackend implements RegistryBackend {
+
+	public final static String DEFAULT_FILE_NAME = "registry.dat";
+
+	private final static byte[] MAGIC = { 'J', 'R', 'E', 'G' };
+	private final static int VERSION = 1;
+	private final static int HEADER = 32;
+	private final static int PUT = 1;
+	private final static int REMOVE = 2;
+
+	/* Don't bother compacting until there is at least this much waste */
+	private final static long COMPACT_MIN = 16 * 1024;
+
+	private final static Map<Path, Store> STORES = new ConcurrentHashMap<>();
+
+	public static void main(String[] args) throws IOException {
+		var scopes = new ArrayList<Scope>();
+		for (var arg : args) {
+			try {
+				scopes.add(Scope.valueOf(arg.toUpperCase()));
+			} catch (IllegalArgumentException iae) {
+				System.err.println("Usage: FileRegistryBackend [user] [system]");
+				System.exit(1);
+			}
+		}
+		if (scopes.isEmpty())
+			scopes.add(Scope.USER);
+
+		var from = new PreferencesRegistryBackend();
+		var to = defaultBackend();
+		for (var scope : scopes) {
+			var copied = RegistryBackend.migrate(from, to, scope);
+			System.out.println(MessageFormat.format("Migrated {0} {1} apps to {2}.", copied,
+					scope.name().toLowerCase(), defaultFile(scope)));
+		}
+	}
+
+	/**
+	 * Create a backend using the default files, see {@link #defaultFile(Scope)}.
+	 *
+	 * @return backend
+	 */
+	public static FileRegistryBackend defaultBackend() {
+		return new FileRegistryBackend(defaultFile(Scope.USER), defaultFile(Scope.SYSTEM));
+	}
+
+	/**
+	 * Get the default file for a scope. User entries are stored in
+	 * {@link AppRegistry#getUserData()}, and system entries in a platform specific
+	 * location. Either may be overridden by the <code>jaul.userRegistry</code> and
+	 * <code>jaul.systemRegistry</code> system properties.
+	 *
+	 * @param scope scope
+	 * @return path to file
+	 */
+	public static Path defaultFile(Scope scope) {
+		if (scope == Scope.USER) {
+			var path = System.getProperty("jaul.userRegistry");
+			return path == null ? AppRegistry.getUserData().resolve(DEFAULT_FILE_NAME) : Paths.get(path);
+		}
+		var path = System.getProperty("jaul.systemRegistry");
+		if (path != null)
+			return Paths.get(path);
+		if (Util.isWindows())
+			return Paths.get(System.getenv().getOrDefault("ProgramData", "C:\\ProgramData"), "jaul", DEFAULT_FILE_NAME);
+		else if (Util.isMacOS())
+			return Paths.get("/Library/Application Support/jaul", DEFAULT_FILE_NAME);
+		else
+			return Paths.get("/var/lib/jaul", DEFAULT_FILE_NAME);
+	}
+
+	private final Store user;
+	private final Store system;
+
+	public FileRegistryBackend(Path userFile, Path systemFile) {
+		user = Store.of(userFile);
+		system = Store.of(systemFile);
+	}
+
+	@Override
+	public List<String> list(Scope scope) throws IOException {
+		return store(scope).list();
+	}
+
+	@Override
+	public Optional<Map<String, String>> get(Scope scope, String id) throws IOException {
+		return store(scope).get(id);
+	}
+
+	@Override
+	public void put(Scope scope, String id, Map<String, String> properties) throws IOException {
+		store(scope).change(id, Collections.unmodifiableMap(new LinkedHashMap<>(properties)));
+	}
+
+	@Override
+	public boolean remove(Scope scope, String id) throws IOException {
+		return store(scope).change(id, null);
+	}
+
+	@Override
+	public void flush(Scope scope) throws IOException {
+		/* Every change is forced to storage as it is made */
+	}
+
+	@Override
+	public Object stamp() {
+		return Arrays.asList(user.generation(), system.generation());
+	}
+
+	@Override
+	public List<Path> watchDirectories() {
+		var dirs = new ArrayList<Path>();
+		for (var store : Arrays.asList(user, system)) {
+			var dir = store.path.toAbsolutePath().getParent();
+			if (Files.isDirectory(dir))
+				dirs.add(dir);
+		}
+		return dirs;
+	}
+
+	private Store store(Scope scope) {
+		return scope == Scope.SYSTEM ? system : user;
+	}
+
+	private final static class Entry {
+		private final Map<String, String> properties;
+		private final int size;
+
+		private Entry(Map<String, String> properties, int size) {
+			this.properties = properties;
+			this.size = size;
+		}
+	}
+
+	private final static class Store {
+		private final Path path;
+
+		private FileChannel channel;
+		private MappedByteBuffer header;
+		private boolean writable;
+		private long generation = -1;
+		private long offset;
+		private long length;
+		private Map<String, Entry> entries = Collections.emptyMap();
+
+		private Store(Path path) {
+			this.path = path;
+		}
+
+		private static Store of(Path path) {
+			return STORES.computeIfAbsent(path.toAbsolutePath().normalize(), Store::new);
+		}
+
+		synchronized long generation() {
+			try {
+				return open() ? header.getLong(8) : 0;
+			} catch (IOException ioe) {
+				return -1;
+			}
+		}
+
+		synchronized List<String> list() throws IOException {
+			return open() ? new ArrayList<>(current().keySet()) : Collections.emptyList();
+		}
+
+		synchronized Optional<Map<String, String>> get(String id) throws IOException {
+			return open() ? Optional.ofNullable(current().get(id)).map(e -> e.properties) : Optional.empty();
+		}
+
+		/* A null properties removes the entry */
+		synchronized boolean change(String id, Map<String, String> properties) throws IOException {
+			if (!open())
+				throw new IOException(MessageFormat.format("Registry {0} could not be created.", path));
+			if (!writable)
+				throw new AccessDeniedException(path.toString(), null, "Registry is read only.");
+
+			try (var lock = channel.lock()) {
+				if (header.getLong(8) != generation)
+					load();
+				if (properties == null && !entries.containsKey(id))
+					return false;
+
+				var record = record(id, properties);
+				write(record, offset + length);
+				channel.force(false);
+				if (properties == null)
+					entries.remove(id);
+				else
+					entries.put(id, new Entry(properties, record.length));
+				length += record.length;
+				commit();
+
+				var live = entries.values().stream().mapToLong(e -> e.size).sum();
+				if (length - live > Math.max(live, COMPACT_MIN))
+					compact();
+				return true;
+			}
+		}
+
+		private Map<String, Entry> current() throws IOException {
+			if (header.getLong(8) != generation) {
+				try (var lock = channel.lock(0, Long.MAX_VALUE, true)) {
+					load();
+				}
+			}
+			return entries;
+		}
+
+		private boolean open() throws IOException {
+			if (channel != null)
+				return true;
+
+			FileChannel ch;
+			try {
+				Files.createDirectories(path.getParent());
+				ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE);
+				writable = true;
+			} catch (IOException ioe) {
+				/* e.g. the system registry, when not an administrator */
+				if (!Files.exists(path)) {
+					Logging.debug("Registry {0} does not exist and cannot be created. {1}", path, ioe.getMessage());
+					return false;
+				}
+				ch = FileChannel.open(path, StandardOpenOption.READ);
+				writable = false;
+			}
+
+			try {
+				if (ch.size() < HEADER) {
+					if (!writable)
+						throw new IOException(MessageFormat.format("Registry {0} is corrupt.", path));
+					try (var lock = ch.lock()) {
+						if (ch.size() < HEADER) {
+							var buf = ByteBuffer.allocate(HEADER);
+							buf.put(MAGIC).putInt(VERSION).putLong(0).putLong(HEADER).putLong(0);
+							buf.flip();
+							while (buf.hasRemaining())
+								ch.write(buf, buf.position());
+							ch.force(true);
+						}
+					}
+				}
+				var hdr = ch.map(MapMode.READ_ONLY, 0, HEADER);
+				var magic = new byte[MAGIC.length];
+				hdr.get(magic);
+				if (!Arrays.equals(magic, MAGIC))
+					throw new IOException(MessageFormat.format("{0} is not a registry.", path));
+				var version = hdr.getInt();
+				if (version != VERSION)
+					throw new IOException(MessageFormat.format("Unsupported registry version {0} in {1}.", version, path));
+				header = hdr;
+				channel = ch;
+				return true;
+			} catch (IOException | RuntimeException e) {
+				ch.close();
+				throw e;
+			}
+		}
+
+		/* Must be called while holding a lock */
+		private void load() throws IOException {
+			var gen = header.getLong(8);
+			var off = header.getLong(16);
+			var len = header.getLong(24);
+			if (off < HEADER || len < 0 || off + len > channel.size())
+				throw new IOException(MessageFormat.format("Registry {0} is corrupt.", path));
+
+			var loaded = new HashMap<String, Entry>();
+			if (len > 0) {
+				/* Read rather than mapped, as mappings are only released when collected */
+				var data = ByteBuffer.allocate(Math.toIntExact(len));
+				while (data.hasRemaining()) {
+					if (channel.read(data, off + data.position()) == -1)
+						throw new IOException(MessageFormat.format("Registry {0} is corrupt.", path));
+				}
+				data.flip();
+				var valid = 0;
+				while (data.hasRemaining()) {
+					var size = data.remaining() < 8 ? -1 : data.getInt();
+					if (size < 1 || size > data.remaining() - 4) {
+						Logging.warn("Registry {0} is corrupt after {1} entries, ignoring the rest.", path, loaded.size());
+						break;
+					}
+					var crc = data.getInt();
+					var body = data.slice().limit(size);
+					data.position(data.position() + size);
+					var actual = new CRC32();
+					actual.update(body.duplicate());
+					if ((int) actual.getValue() != crc) {
+						Logging.warn("Registry {0} is corrupt after {1} entries, ignoring the rest.", path, loaded.size());
+						break;
+					}
+
+					var type = body.get();
+					var id = readString(body);
+					if (type == PUT) {
+						var count = body.getShort() & 0xffff;
+						var properties = new LinkedHashMap<String, String>();
+						for (int i = 0; i < count; i++) {
+							properties.put(readString(body), readString(body));
+						}
+						loaded.put(id, new Entry(Collections.unmodifiableMap(properties), size + 8));
+					} else {
+						loaded.remove(id);
+					}
+					valid = data.position();
+				}
+				/* Further changes replace anything that could not be read, or they would be lost with it */
+				len = valid;
+			}
+
+			entries = loaded;
+			generation = gen;
+			offset = off;
+			length = len;
+		}
+
+		/* Must be called while holding an exclusive lock */
+		private void compact() throws IOException {
+			var out = new ByteArrayOutputStream();
+			for (var en : entries.entrySet()) {
+				out.write(record(en.getKey(), en.getValue().properties));
+			}
+			var log = out.toByteArray();
+
+			/* Never overwrite the current log, in case this is interrupted */
+			var pos = HEADER + log.length <= offset ? HEADER : offset + length;
+			write(log, pos);
+			channel.force(false);
+			offset = pos;
+			length = log.length;
+			commit();
+			Logging.debug("Compacted registry {0} to {1} bytes.", path, length);
+		}
+
+		private void commit() throws IOException {
+			var buf = ByteBuffer.allocate(24);
+			buf.putLong(++generation).putLong(offset).putLong(length);
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf, 8 + buf.position());
+			channel.force(false);
+		}
+
+		private void write(byte[] data, long position) throws IOException {
+			var buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining())
+				channel.write(buf, position + buf.position());
+		}
+	}
+
+	private static byte[] record(String id, Map<String, String> properties) throws IOException {
+		var body = new ByteArrayOutputStream();
+		var dout = new DataOutputStream(body);
+		dout.writeByte(properties == null ? REMOVE : PUT);
+		writeString(dout, id);
+		if (properties != null) {
+			if (properties.size() > 0xffff)
+				throw new IOException("Too many properties.");
+			dout.writeShort(properties.size());
+			for (var en : properties.entrySet()) {
+				writeString(dout, en.getKey());
+				writeString(dout, en.getValue());
+			}
+		}
+		dout.flush();
+
+		var b = body.toByteArray();
+		var crc = new CRC32();
+		crc.update(b);
+		var record = ByteBuffer.allocate(8 + b.length);
+		record.putInt(b.length).putInt((int) crc.getValue()).put(b);
+		return record.array();
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		var b = str.getBytes(StandardCharsets.UTF_8);
+		if (b.length > 0xffff)
+			throw new IOException("String is too long.");
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		var b = new byte[buf.getShort() & 0xffff];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,173 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The single HTTP client used for all of Jaul's network access (descriptors and
+ * media downloads), so connections are pooled and reused between checks and
+ * downloads. A different transport may be installed using
+ * {@link #set(HttpTransport)}, for example to point at a local server in tests.
+ */
+public final class HttpTransport {
+
+	public final static class HttpTransportBuilder {
+		private Duration connectTimeout = Duration.ofSeconds(20);
+		private Duration requestTimeout = Duration.ofMinutes(2);
+		private int maxThreads = 4;
+		private Version version = Version.HTTP_2;
+		private Optional<HttpClient> client = Optional.empty();
+
+		public static HttpTransportBuilder builder() {
+			return new HttpTransportBuilder();
+		}
+
+		public HttpTransportBuilder withConnectTimeout(Duration connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		/**
+		 * Time allowed for a response to start arriving. This does not limit how long
+		 * the body takes to transfer.
+		 *
+		 * @param requestTimeout timeout
+		 * @return this for chaining
+		 */
+		public HttpTransportBuilder withRequestTimeout(Duration requestTimeout) {
+			this.requestTimeout = requestTimeout;
+			return this;
+		}
+
+		public HttpTransportBuilder withMaxThreads(int maxThreads) {
+			if (maxThreads < 1)
+				throw new IllegalArgumentException("Must have at least one thread.");
+			this.maxThreads = maxThreads;
+			return this;
+		}
+
+		public HttpTransportBuilder withVersion(Version version) {
+			this.version = version;
+			return this;
+		}
+
+		/**
+		 * Use a pre-configured client. The connect timeout, thread and version
+		 * settings of this builder are ignored.
+		 *
+		 * @param client client
+		 * @return this for chaining
+		 */
+		public HttpTransportBuilder withClient(HttpClient client) {
+			this.client = Optional.of(client);
+			return this;
+		}
+
+		public HttpTransport build() {
+			return new HttpTransport(this);
+		}
+	}
+
+	private static HttpTransport instance;
+
+	public static HttpTransport get() {
+		synchronized (HttpTransport.class) {
+			if (instance == null) {
+				instance = HttpTransportBuilder.builder().build();
+			}
+			return instance;
+		}
+	}
+
+	public static void set(HttpTransport transport) {
+		synchronized (HttpTransport.class) {
+			instance = transport;
+		}
+	}
+
+	private final HttpClient client;
+	private final Duration requestTimeout;
+
+	private HttpTransport(HttpTransportBuilder builder) {
+		this.requestTimeout = builder.requestTimeout;
+		this.client = builder.client.orElseGet(() -> {
+			var threads = new AtomicInteger();
+			var executor = new ThreadPoolExecutor(builder.maxThreads, builder.maxThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), r -> {
+						var t = new Thread(r, "JaulHttp-" + threads.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+			executor.allowCoreThreadTimeOut(true);
+			return HttpClient.newBuilder().
+					version(builder.version).
+					followRedirects(Redirect.NORMAL).
+					connectTimeout(builder.connectTimeout).
+					executor(executor).
+					build();
+		});
+	}
+
+	public HttpClient client() {
+		return client;
+	}
+
+	/**
+	 * Create a new client with the same settings as {@link #client()}, but its own
+	 * connections, for requests that must not reuse an existing connection, e.g.
+	 * to time how long a server takes to respond. It is discarded once no longer
+	 * referenced.
+	 *
+	 * @return client
+	 */
+	public HttpClient newClient() {
+		var builder = HttpClient.newBuilder().
+				version(client.version()).
+				followRedirects(client.followRedirects()).
+				sslContext(client.sslContext()).
+				sslParameters(client.sslParameters()).
+				executor(executor());
+		client.connectTimeout().ifPresent(builder::connectTimeout);
+		client.proxy().ifPresent(builder::proxy);
+		client.authenticator().ifPresent(builder::authenticator);
+		client.cookieHandler().ifPresent(builder::cookieHandler);
+		return builder.build();
+	}
+
+	/**
+	 * Executor to use for work that follows on from asynchronous requests.
+	 *
+	 * @return executor
+	 */
+	public Executor executor() {
+		return client.executor().orElseGet(ForkJoinPool::commonPool);
+	}
+
+	public HttpRequest.Builder request(URI uri) {
+		return HttpRequest.newBuilder().uri(uri).timeout(requestTimeout);
+	}
+
+	public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler)
+			throws IOException, InterruptedException {
+		return client.send(request, handler);
+	}
+
+	public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler) {
+		return client.sendAsync(request, handler);
+	}
+}
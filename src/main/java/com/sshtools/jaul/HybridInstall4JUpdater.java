@@ -3,32 +3,38 @@ package com.sshtools.jaul;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse.BodyHandlers;
-import java.nio.file.Files;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
-import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.install4j.api.Util;
 import com.install4j.api.update.UpdateDescriptorEntry;
+import com.sshtools.jaul.Downloader.DownloaderBuilder;
+import com.sshtools.jaul.Downloader.Progress;
 
 public final class HybridInstall4JUpdater extends Install4JUpdater {
 
+	private final static long REPORT_INTERVAL = 250;
+
 	public final static class HybridInstall4JUpdaterBuilder
 			extends AbstractInstall4JUpdaterBuilder<HybridInstall4JUpdaterBuilder, HybridInstall4JUpdater> {
 
 		private Optional<Function<String[], Integer>> commandExecutor = Optional.empty();
 		private boolean unattended = false;
 		private Optional<Path> installDir = Optional.empty();
+		private Optional<Integer> segments = Optional.empty();
+		private Optional<Long> minimumSegmentSize = Optional.empty();
 
 		public HybridInstall4JUpdaterBuilder withCommandExecutor(Function<String[], Integer> commandExector) {
 			this.commandExecutor = Optional.of(commandExector);
@@ -44,6 +50,30 @@ public final class HybridInstall4JUpdater extends Install4JUpdater {
 			return this;
 		}
 
+		/**
+		 * Maximum number of byte ranges of the installer to download at once. See
+		 * {@link Downloader.DownloaderBuilder#withSegments(int)}.
+		 *
+		 * @param segments segments
+		 * @return this for chaining
+		 */
+		public HybridInstall4JUpdaterBuilder withSegments(int segments) {
+			this.segments = Optional.of(segments);
+			return this;
+		}
+
+		/**
+		 * Smallest byte range of the installer worth downloading separately. See
+		 * {@link Downloader.DownloaderBuilder#withMinimumSegmentSize(long)}.
+		 *
+		 * @param minimumSegmentSize minimum segment size in bytes
+		 * @return this for chaining
+		 */
+		public HybridInstall4JUpdaterBuilder withMinimumSegmentSize(long minimumSegmentSize) {
+			this.minimumSegmentSize = Optional.of(minimumSegmentSize);
+			return this;
+		}
+
 		public HybridInstall4JUpdaterBuilder withUnattended(boolean unattended) {
 			this.unattended = unattended;
 			return this;
@@ -62,12 +92,16 @@ public final class HybridInstall4JUpdater extends Install4JUpdater {
 	private final Optional<Function<String[], Integer>> commandExecutor;
 	private final boolean unattended;
 	private final Optional<Path> installDir;
+	private final Optional<Integer> segments;
+	private final Optional<Long> minimumSegmentSize;
 
 	private HybridInstall4JUpdater(HybridInstall4JUpdaterBuilder builder) {
 		super(builder);
 		this.commandExecutor = builder.commandExecutor;
 		this.unattended = builder.unattended;
 		this.installDir = builder.installDir;
+		this.segments = builder.segments;
+		this.minimumSegmentSize = builder.minimumSegmentSize;
 	}
 
 	private int runInstallerExecutable(boolean unattended, Path exec, Optional<Path> installDir)
@@ -119,67 +153,49 @@ public final class HybridInstall4JUpdater extends Install4JUpdater {
 
 	@Override
 	protected void downloadAndExecuteUpdater(UpdateDescriptorEntry best) throws IOException {
-		var downloads = AppRegistry.getUserData().resolve("downloads");
-		if (Files.exists(downloads)) {
-			var maxAge = Instant.now().minus(2, ChronoUnit.DAYS);
-			try(var str = Files.newDirectoryStream(downloads)) {
-				for(var file : str) {
-					if(Files.getLastModifiedTime(file).toInstant().isBefore(maxAge)) {
-						Files.delete(file);
-					}
-				}
-			}
-		}
-		else {
-			Files.createDirectories(downloads);
-		}
-
 		var listener = progressListenerFactory.map(f -> f.get());
 
 		/* Download */
 		listener.ifPresent(l -> l.indeterminateProgress(true));
 
-		var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build();
 		var fn = Paths.get(best.getURL().getFile()).getFileName();
-		var outFile = downloads.resolve(fn);
+		Path outFile;
 		try {
-			var request = HttpRequest.newBuilder().uri(best.getURL().toURI()).timeout(Duration.ofMinutes(2)).GET()
-					.build();
-
 			listener.ifPresent(l -> l.statusMessage(MessageFormat.format("Locating {0}", fn)));
 //			listener.ifPresent(l -> l.detailMessage(best.getURL().toString()));
 
-			var response = client.send(request, BodyHandlers.ofInputStream());
-
-			if (response.statusCode() == 200) {
-
-				var sz = response.headers().firstValueAsLong("Content-Length").orElse(0);
-				var started = System.currentTimeMillis();
-
-				listener.ifPresent(l -> l.indeterminateProgress(sz > 0));
-				listener.ifPresent(l -> l.statusMessage(MessageFormat.format("Downloading {0}", fn)));
-				try (var out = Files.newOutputStream(outFile)) {
-					try (var in = response.body()) {
-						var buf = new byte[65536];
-						int r;
-						long t = 0;
-						while ((r = in.read(buf)) != -1) {
-							out.write(buf, 0, r);
-							t += r;
-							if (sz > 0 && listener.isPresent()) {
-								listener.get().detailMessage(report(t, sz, started));
-								listener.get().percentCompleted((int) (((double) t / (double) sz) * (double) 100));
+			var started = System.currentTimeMillis();
+			var resumedFrom = new AtomicLong(-1);
+			var lastReported = new AtomicLong();
+			var lastPercent = new AtomicInteger(-1);
+			Consumer<DownloaderBuilder> progress = downloader -> {
+				downloader.
+					withProgress((t, sz) -> {
+						if (listener.isPresent()) {
+							if (resumedFrom.compareAndSet(-1, t)) {
+								listener.get().indeterminateProgress(sz <= 0);
+								listener.get().statusMessage(MessageFormat.format("Downloading {0}", fn));
+							}
+							if (sz > 0) {
+								/* Called for every buffer, so only report when there is something new to show */
+								var pc = (int) (((double) t / (double) sz) * (double) 100);
+								var now = System.currentTimeMillis();
+								if (pc != lastPercent.get() || now - lastReported.get() >= REPORT_INTERVAL || t == sz) {
+									lastPercent.set(pc);
+									lastReported.set(now);
+									listener.get().detailMessage(report(t, t - resumedFrom.get(), sz, started));
+									listener.get().percentCompleted(pc);
+								}
 							}
 						}
+					});
+				segments.ifPresent(downloader::withSegments);
+				minimumSegmentSize.ifPresent(downloader::withMinimumSegmentSize);
+			};
 
-						in.transferTo(out);
-					}
-				}
-				listener.ifPresent(l -> l.statusMessage(MessageFormat.format("Completed downloading {0}", fn)));
+			outFile = download(best, fn.toString(), progress);
 
-			} else {
-				throw new IOException("Unexpected response code for " + best.getURL() + ". " + response.statusCode());
-			}
+			listener.ifPresent(l -> l.statusMessage(MessageFormat.format("Completed downloading {0}", fn)));
 		} catch (IOException ioe) {
 			listener.ifPresent(
 					l -> l.statusMessage(MessageFormat.format("Error downloading {0}. {1}", fn, ioe.getMessage())));
@@ -233,23 +249,109 @@ public final class HybridInstall4JUpdater extends Install4JUpdater {
 			onExit.get().accept(ret);
 	}
 
+	@Override
+	protected void prefetch(UpdateDescriptorEntry best, Progress progress) throws IOException, InterruptedException {
+		var fn = Paths.get(best.getURL().getFile()).getFileName();
+		try {
+			/* A single stream, to leave the connection for everything else */
+			download(best, fn.toString(), downloader -> downloader.withProgress(progress).withSegments(1));
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private Path download(UpdateDescriptorEntry best, String fileName, Consumer<DownloaderBuilder> progress) throws IOException, InterruptedException, URISyntaxException {
+		Consumer<DownloaderBuilder> configure = downloader -> {
+			progress.accept(downloader);
+			rateLimiter.ifPresent(downloader::withRateLimiter);
+		};
+		var desc = descriptor();
+		var patched = rebuildFromPatch(best, fileName, desc, configure);
+		if(patched.isPresent()) {
+			return patched.get();
+		}
+		var mirrors = mirrors(desc, best.getURL());
+		return DownloadCache.get().download(best.getURL().toURI(), fileName, best.getSha256Sum(), downloader -> {
+			downloader.
+				withExpectedSize(best.getFileSize()).
+				withMd5Sum(best.getMd5Sum()).
+				withMirrors(mirrors);
+			configure.accept(downloader);
+		});
+	}
 
-	private  synchronized String report(long totalSoFar, long length, long started) {
+	/*
+	 * The Jaul descriptor alongside the Install4J one may offer patches and mirrors.
+	 * Neither is required, so failing to get it is not fatal.
+	 */
+	private Optional<UpdateDescriptor> descriptor() {
+		try {
+			return Optional.of(UpdateDescriptor.get(URI.create(getUpdateUrl())));
+		}
+		catch(IOException | RuntimeException e) {
+			Logging.warn("Failed to get update descriptor, no patches or mirrors will be used. {0}", e.getMessage());
+			return Optional.empty();
+		}
+	}
 
-		if(totalSoFar > 0) {
+	private List<URI> mirrors(Optional<UpdateDescriptor> desc, URL url) {
+		return desc.map(d -> d.getMirrorLocations(url)).orElse(Collections.emptyList());
+	}
+
+	/*
+	 * If the descriptor offers a patch from the installed version, and the media
+	 * for that version is still in the download cache, only download the patch.
+	 * Any failure falls back to downloading the full media.
+	 */
+	private Optional<Path> rebuildFromPatch(UpdateDescriptorEntry best, String fileName, Optional<UpdateDescriptor> desc, Consumer<DownloaderBuilder> progress) throws InterruptedException {
+		var sha256Sum = best.getSha256Sum();
+		if(sha256Sum == null || sha256Sum.isEmpty() || desc.isEmpty())
+			return Optional.empty();
+		try {
+			var patch = desc.get().getMediaUrls().values().stream().
+					filter(m -> m.name().equals(fileName)).
+					map(m -> m.patch(getCurrentVersion())).
+					flatMap(Optional::stream).
+					findFirst();
+			if(patch.isEmpty())
+				return Optional.empty();
+			
+			var cache = DownloadCache.get();
+			var base = cache.lookup(patch.get().fromSha256Sum());
+			if(base.isEmpty()) {
+				Logging.info("A patch from {0} to {1} is available, but the media for {0} is no longer cached.", getCurrentVersion(), best.getNewVersion());
+				return Optional.empty();
+			}
+			
+			Logging.info("Downloading patch {0} from {1} to {2}.", patch.get().name(), getCurrentVersion(), best.getNewVersion());
+			var mirrors = mirrors(desc, patch.get().url());
+			return Optional.of(cache.rebuild(base.get(), patch.get().url().toURI(), patch.get().sha256Sum(), fileName, sha256Sum, downloader -> {
+				downloader.withMirrors(mirrors);
+				progress.accept(downloader);
+			}));
+		}
+		catch(IOException | URISyntaxException | RuntimeException e) {
+			Logging.warn("Failed to update using patch, downloading full media instead. {0}", e.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	private  synchronized String report(long totalSoFar, long transferred, long length, long started) {
+
+		var time = (System.currentTimeMillis() - started);
+		if(totalSoFar > 0 && transferred > 0 && time > 0) {
 
 			var percentage = ((double) totalSoFar / (double)length) * 100;
 			var percentageStr = String.format("%.0f%%", percentage);
 
 			var humanBytes = toByteSize(totalSoFar);
 
-			var time = (System.currentTimeMillis() - started);
-
-			var megabytesPerSecond = (totalSoFar / time) / 1024D;
+			/* Rate is only for this session, resumed bytes were not transferred now */
+			var megabytesPerSecond = (transferred / time) / 1024D;
 			var transferRate = String.format("%.1fMB/s", megabytesPerSecond);
 
 			var remaining = (length - totalSoFar);
-			var perSecond = (long) (megabytesPerSecond * 1024);
+			var perSecond = Math.max(1, (long) (megabytesPerSecond * 1024));
 			var seconds = (remaining / perSecond) / 1000l;
 
 			return String.format("%4s %8s %10s %5d:%02d",
@@ -33,17 +33,20 @@ public class Install4JUpdateService extends AbstractUpdateService {
 		/* Force loading of I4J so if it doesn't exist we know earlier */
 		ApplicationLauncher.isNewArchiveInstallation();
 
-		return new Install4JUpdateService(context, 
+		var service = new Install4JUpdateService(context, 
 				() -> Install4JUpdaterBuilder.builder().
 				withCurrentVersion(version).
 				withConsoleMode(consoleMode).
 				withLauncherId(app.getLauncherId()).
 				withUpdateUrl(app.getUpdatesUrl().get().replace("${phase}", context.getPhase().name().toLowerCase())).
 				onExit((e) -> System.exit(e)));
+		service.setDownloadRate(app.getDownloadRate());
+		return service;
 
 	}
 
 	private final Supplier<? extends AbstractInstall4JUpdaterBuilder<?, ?>> builderFactory;
+	private volatile Install4JUpdater checked;
 
 	public Install4JUpdateService(UpdateableAppContext context, Supplier<? extends AbstractInstall4JUpdaterBuilder<?, ?>> builderFactory) {
 		super(context);
@@ -112,13 +115,24 @@ public class Install4JUpdateService extends AbstractUpdateService {
 
 	@Override
 	protected String doUpdate(boolean checkOnly) throws IOException {
-		return builderFactory.get().
+		var updater = builderFactory.get().
 				withCheckOnly(checkOnly).
 				withCurrentVersion(getContext().getVersion()).
+				withRateLimiter(getRateLimiter()).
 				withProgressListenerFactory(this::progressListener).
-				build().
-				call();
+				build();
+		var version = updater.call();
+		/* Keep what the check found, so prefetching need not check again */
+		checked = checkOnly ? updater : null;
+		return version;
+	}
 
+	@Override
+	protected void doPrefetch(String version, Downloader.Progress progress) throws IOException, InterruptedException {
+		var updater = checked;
+		if(updater == null)
+			throw new IllegalStateException("No check has been made.");
+		updater.prefetch(version, progress);
 	}
 
 }
@@ -2,9 +2,11 @@ package com.sshtools.jaul;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -100,6 +102,20 @@ public class Install4JUpdater implements Callable<String> {
 		Optional<Supplier<ProgressListener>> progressListenerFactory = Optional.empty();
 		Optional<Runnable> onPrepareShutdown = Optional.empty();
 		Optional<Path> path = Optional.empty();
+		Optional<RateLimiter> rateLimiter = Optional.empty();
+
+		/**
+		 * Limit the rate media is downloaded at, if the updater downloads it
+		 * itself.
+		 *
+		 * @param rateLimiter rate limiter
+		 * @return this for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public B withRateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = Optional.of(rateLimiter);
+			return (B) this;
+		}
 
 		
 		@SuppressWarnings("unchecked")
@@ -223,6 +239,9 @@ public class Install4JUpdater implements Callable<String> {
 	protected final boolean consoleMode;
 	protected final Optional<String[]> args;
 	protected final Optional<Supplier<ProgressListener>> progressListenerFactory;
+	protected final Optional<RateLimiter> rateLimiter;
+
+	private volatile UpdateDescriptorEntry available;
 
 	protected Install4JUpdater(AbstractInstall4JUpdaterBuilder<?, ?> builder) {
 		this.args = builder.args;
@@ -238,6 +257,15 @@ public class Install4JUpdater implements Callable<String> {
 		this.checkOnly = builder.checkOnly;
 		this.onExit = builder.onExit;
 		this.progressListenerFactory = builder.progressListenerFactory;
+		this.rateLimiter = builder.rateLimiter;
+	}
+
+	protected final String getUpdateUrl() {
+		return uurl;
+	}
+
+	protected final String getCurrentVersion() {
+		return currentVersion;
 	}
 
 	@Override
@@ -249,7 +277,7 @@ public class Install4JUpdater implements Callable<String> {
 				UpdateDescriptor update;
 				try {
 					Logging.info("Instal4j runtime dir is " + System.getProperty("install4j.runtimeDir"));
-					update = UpdateChecker.getUpdateDescriptor(uurl,
+					update = UpdateChecker.getUpdateDescriptor(cachedDescriptorUrl(),
 							consoleMode ? ApplicationDisplayMode.CONSOLE : ApplicationDisplayMode.GUI);
 					
 					var best = update.getPossibleUpdateEntry();
@@ -264,6 +292,7 @@ public class Install4JUpdater implements Callable<String> {
 					/* TODO: This will allow downgrades. */
 					if (!availableVersion.equals(currentVersion)) {
 						Logging.info("Update available.");
+						available = best;
 					} else {
 						Logging.info("No update needed.");
 						return null;
@@ -292,6 +321,54 @@ public class Install4JUpdater implements Callable<String> {
 		}
 	}
 
+	private String cachedDescriptorUrl() {
+		try {
+			var uri = URI.create(uurl);
+			if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
+				var cache = DescriptorCache.get();
+				var descriptor = cache.xmlDescriptor(uri);
+				/* Otherwise media locations would be resolved against the local copy */
+				if (!URI.create(descriptor.getBaseUrl()).isAbsolute())
+					throw new IOException("Descriptor does not have an absolute base URL.");
+				return cache.plainFile(uri).toUri().toString();
+			}
+		} catch (Exception e) {
+			Logging.warn("Could not use descriptor cache for {0}, using remote descriptor. {1}", uurl, e.getMessage());
+		}
+		return uurl;
+	}
+
+	/**
+	 * Download the media for the update found by the last {@link #call()} into the
+	 * {@link DownloadCache}, without installing it or checking for updates again.
+	 *
+	 * @param version  version found by the last check
+	 * @param progress progress of the download
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 * @throws IllegalStateException if the last check did not find this version
+	 */
+	public final void prefetch(String version, Downloader.Progress progress) throws IOException, InterruptedException {
+		var best = available;
+		if (best == null || !best.getNewVersion().equals(version))
+			throw new IllegalStateException(MessageFormat.format("Version {0} was not found by the last check.", version));
+		prefetch(best, progress);
+	}
+
+	/**
+	 * Download the media for an update without installing it. This updater
+	 * launches the application's own updater, which downloads for itself, so does
+	 * nothing.
+	 *
+	 * @param best     update entry
+	 * @param progress progress of the download
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	protected void prefetch(UpdateDescriptorEntry best, Downloader.Progress progress) throws IOException, InterruptedException {
+		Logging.info("Prefetch is not supported by {0}.", getClass().getSimpleName());
+	}
+
 	protected void downloadAndExecuteUpdater(UpdateDescriptorEntry best) throws IOException {
 		var args = new ArrayList<String>();
 		if (consoleMode)
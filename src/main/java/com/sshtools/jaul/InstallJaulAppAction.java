@@ -25,6 +25,8 @@ public class InstallJaulAppAction extends AbstractInstallAction implements JaulI
 	private boolean forceReinstall = false;
     private boolean updateIfNewerAvailable = true;
 	private boolean debug = true;
+	private transient long downloadRate;
+	private transient UpdateDescriptor descriptor;
 
 	@Override
 	public boolean install(InstallerContext context) throws UserCanceledException {
@@ -41,6 +43,7 @@ public class InstallJaulAppAction extends AbstractInstallAction implements JaulI
 					var appDef  = new LocalAppDef(app);
 					Logger.getInstance().info(this, MessageFormat.format("{0} is installed, version {1}.", actualJaulAppId, appDef.getVersion()));
 					installedVersion = Optional.of(appDef.getVersion());
+					downloadRate = app.getDownloadRate();
 				}
 				catch(IllegalStateException | IllegalArgumentException iae) {
 					/* Not installed */
@@ -51,6 +54,7 @@ public class InstallJaulAppAction extends AbstractInstallAction implements JaulI
 				var uri = URI.create(replaceVariables(updatesXmlLocation));
 				Logger.getInstance().info(this, MessageFormat.format("Getting {0} from {1}", actualJaulAppId, uri));
 				var desc = UpdateDescriptor.get(uri);
+				descriptor = desc;
 				Logger.getInstance().info(this, MessageFormat.format("Got {0} from {1}", actualJaulAppId, uri));
 				var key = MediaKey.get();
 				var mediaOr = desc.find(key);
@@ -86,11 +90,20 @@ public class InstallJaulAppAction extends AbstractInstallAction implements JaulI
 
 	protected void doInstall(InstallerContext context, Media media) {
 		var url = media.url();
-		if(Util.hasFullAdminRights() || Util.isAdminGroup()) {
-			new CallInstall(context.getProgressInterface(), url.toExternalForm(), installDir == null ? null : installDir.getAbsolutePath().toString(), unattended, null, true, debug).execute();
+		var mirrors = descriptor == null ? new String[0] : descriptor.getMirrorLocations(url).stream().map(URI::toString).toArray(String[]::new);
+		var admin = Util.hasFullAdminRights() || Util.isAdminGroup();
+		var call = new CallInstall(admin ? context.getProgressInterface() : null, url.toExternalForm(), installDir == null ? null : installDir.getAbsolutePath().toString(), unattended, null, true, debug);
+		/* Normalised, so invalid checksums in the descriptor are ignored rather than failing the install */
+		call.setSha256Sum(UpdateDescriptor.toHex(media.sha256()));
+		call.setMd5Sum(UpdateDescriptor.toHex(media.md5()));
+		call.setDownloadRate(downloadRate);
+		call.setMirrors(mirrors);
+		call.setCacheDir(DownloadCache.get().getDirectory().toString());
+		if(admin) {
+			call.execute();
 		}
 		else {
-			context.runElevated(new CallInstall(null, url.toExternalForm(), installDir == null ? null : installDir.getAbsolutePath().toString(), unattended, null, true, debug), true);
+			context.runElevated(call, true);
 		}
 	}
 
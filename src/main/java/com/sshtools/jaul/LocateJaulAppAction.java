@@ -49,9 +49,9 @@ public class LocateJaulAppAction extends AbstractInstallAction implements JaulI4
 				
 				var uri = URI.create(replaceVariables(updatesXmlLocation));
 				Logger.getInstance().info(this, MessageFormat.format("Getting {0} from {1}", actualJaulAppId, uri));
-				var desc = UpdateDescriptor.get(uri);
-				Logger.getInstance().info(this, MessageFormat.format("Got {0} from {1}", actualJaulAppId, uri));
 				var key = MediaKey.get();
+				var desc = UpdateDescriptor.get(uri, key);
+				Logger.getInstance().info(this, MessageFormat.format("Got {0} from {1}", actualJaulAppId, uri));
 				var mediaOr = desc.find(key);
 				if(mediaOr.isPresent()) {
 					var media = mediaOr.get();
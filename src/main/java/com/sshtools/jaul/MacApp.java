@@ -135,7 +135,11 @@ public class MacApp {
 		else {
 			var file = dir.resolve(app);
 			System.out.println("Copying " + file + " to " + script);
-			/* TODO test if a symlink works to save some disk space and confusion */
+			/*
+			 * Copied, not hard linked, as the script is made executable below, which would
+			 * also change the launcher. TODO test if a symlink works to save some disk
+			 * space and confusion
+			 */
 			Files.copy(file, script, StandardCopyOption.REPLACE_EXISTING);
 		}
 		
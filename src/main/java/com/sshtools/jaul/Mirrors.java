@@ -0,0 +1,138 @@
+package com.sshtools.jaul;
+
+import java.net.URI;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Orders the locations a file may be downloaded from (the primary location and
+ * any mirrors) so the fastest is tried first. Each server is sent a
+ * <code>HEAD</code> request for the file, all at the same time, each over a new
+ * connection, and ranked by how long the response takes to arrive. Servers that fail or don't have the
+ * file are ranked last, but are kept so they may still be failed over to.
+ * <p>
+ * Rankings are by server (scheme, host and port), and are kept for a while, so
+ * further downloads from the same set of servers are not probed again.
+ */
+public final class Mirrors {
+
+	/**
+	 * Default time to keep rankings, 1 hour unless overridden by the
+	 * <code>jaul.mirrorRankingTime</code> system property (in seconds).
+	 */
+	public final static Duration DEFAULT_RANKING_TIME = Duration
+			.ofSeconds(Long.getLong("jaul.mirrorRankingTime", 60 * 60));
+
+	private final static class Default {
+		private final static Mirrors DEFAULT = new Mirrors(DEFAULT_RANKING_TIME, Duration.ofSeconds(5));
+	}
+
+	private final static class Ranking {
+		private final List<String> servers;
+		private final long expires;
+
+		private Ranking(List<String> servers, long expires) {
+			this.servers = servers;
+			this.expires = expires;
+		}
+	}
+
+	private final Map<String, Ranking> rankings = new HashMap<>();
+	private final Duration rankingTime;
+	private final Duration probeTimeout;
+
+	public static Mirrors get() {
+		return Default.DEFAULT;
+	}
+
+	public Mirrors(Duration rankingTime, Duration probeTimeout) {
+		this.rankingTime = rankingTime;
+		this.probeTimeout = probeTimeout;
+	}
+
+	/**
+	 * Order locations of the same file, fastest first.
+	 *
+	 * @param locations locations
+	 * @return locations in order
+	 */
+	public List<URI> rank(List<URI> locations) {
+		var distinct = new ArrayList<>(new LinkedHashSet<>(locations));
+		if (distinct.size() < 2)
+			return distinct;
+
+		var key = distinct.stream().map(Mirrors::server).sorted().distinct().collect(Collectors.joining(" "));
+		Ranking ranking;
+		synchronized (rankings) {
+			ranking = rankings.get(key);
+		}
+		if (ranking == null || System.currentTimeMillis() >= ranking.expires) {
+			ranking = new Ranking(probe(distinct), System.currentTimeMillis() + rankingTime.toMillis());
+			synchronized (rankings) {
+				rankings.put(key, ranking);
+			}
+		}
+
+		var servers = ranking.servers;
+		distinct.sort(Comparator.comparingInt(uri -> {
+			var idx = servers.indexOf(server(uri));
+			return idx == -1 ? Integer.MAX_VALUE : idx;
+		}));
+		return distinct;
+	}
+
+	/**
+	 * Forget all rankings, so the next download probes again.
+	 */
+	public void clear() {
+		synchronized (rankings) {
+			rankings.clear();
+		}
+	}
+
+	private List<String> probe(List<URI> locations) {
+		var transport = HttpTransport.get();
+		/*
+		 * Not the shared client, it may already have a connection to some servers
+		 * (e.g. the one the descriptor came from), which would then appear fastest
+		 * as they need no connection (or TLS) handshake
+		 */
+		var client = transport.newClient();
+		var latencies = new HashMap<String, Long>();
+		var probes = new ArrayList<CompletableFuture<Void>>();
+		for (var uri : locations) {
+			var started = System.nanoTime();
+			var request = transport.request(uri).method("HEAD", BodyPublishers.noBody()).timeout(probeTimeout).build();
+			probes.add(client.sendAsync(request, BodyHandlers.discarding()).handle((response, ex) -> {
+				var latency = ex == null && response.statusCode() == 200 ? System.nanoTime() - started : Long.MAX_VALUE;
+				synchronized (latencies) {
+					latencies.merge(server(uri), latency, Math::min);
+				}
+				return null;
+			}));
+		}
+		CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).join();
+
+		var servers = new ArrayList<>(latencies.keySet());
+		servers.sort(Comparator.comparingLong(latencies::get));
+		if (Logging.isDebugEnabled()) {
+			Logging.debug("Mirror ranking {0}", servers.stream()
+					.map(s -> s + "=" + (latencies.get(s) == Long.MAX_VALUE ? "failed" : latencies.get(s) / 1000000 + "ms"))
+					.collect(Collectors.joining(", ")));
+		}
+		return servers;
+	}
+
+	private static String server(URI uri) {
+		return uri.getScheme() + "://" + uri.getAuthority();
+	}
+}
@@ -0,0 +1,202 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import com.sshtools.jaul.AppRegistry.Scope;
+
+/**
+ * Stores registry entries in {@link Preferences}, as a child node of
+ * <code>com/sshtools/jaul/registry</code> for each app, in the user or system
+ * root. This is the default {@link RegistryBackend}.
+ */
+public final class PreferencesRegistryBackend implements RegistryBackend {
+
+	@Override
+	public List<String> list(Scope scope) throws IOException {
+		var root = root(scope);
+		try {
+			root.sync();
+			if (isFileBased()) {
+				/*
+				 * FileSystemPreferences.sync() only reloads nodes from disk when the
+				 * root's modification file still has the time this runtime last gave it,
+				 * i.e. when no other process has synced since. So the first sync after
+				 * another process changes the registry just takes over that file, and
+				 * only a second one reads the change.
+				 */
+				root.sync();
+			}
+		} catch (BackingStoreException e) {
+		}
+		try {
+			return Arrays.asList(root.childrenNames());
+		} catch (BackingStoreException bse) {
+			throw new IOException("Failed to list registry.", bse);
+		}
+	}
+
+	@Override
+	public Optional<Map<String, String>> get(Scope scope, String id) throws IOException {
+		var root = root(scope);
+		try {
+			if (!root.nodeExists(id))
+				return Optional.empty();
+			var node = root.node(id);
+			var properties = new LinkedHashMap<String, String>();
+			for (var key : node.keys()) {
+				properties.put(key, node.get(key, ""));
+			}
+			return Optional.of(Collections.unmodifiableMap(properties));
+		} catch (BackingStoreException bse) {
+			throw new IOException("Failed to read registry.", bse);
+		}
+	}
+
+	@Override
+	public void put(Scope scope, String id, Map<String, String> properties) throws IOException {
+		if (scope == Scope.SYSTEM)
+			AppRegistry.checkPreferencesDir();
+		var node = root(scope).node(id);
+		for (var en : properties.entrySet()) {
+			node.put(en.getKey(), en.getValue());
+		}
+		try {
+			node.flush();
+		} catch (BackingStoreException bse) {
+			throw new IOException("Failed to write registry.", bse);
+		}
+	}
+
+	@Override
+	public boolean remove(Scope scope, String id) throws IOException {
+		var root = root(scope);
+		try {
+			if (!root.nodeExists(id))
+				return false;
+			root.node(id).removeNode();
+			return true;
+		} catch (BackingStoreException bse) {
+			throw new IOException("Failed to remove from registry.", bse);
+		}
+	}
+
+	@Override
+	public void flush(Scope scope) throws IOException {
+		try {
+			if (scope == Scope.SYSTEM)
+				Preferences.systemRoot().flush();
+			else
+				Preferences.userRoot().flush();
+		} catch (BackingStoreException bse) {
+			throw new IOException("Failed to flush registry.", bse);
+		}
+	}
+
+	/**
+	 * The names, sizes and modification times of the preference files of each
+	 * app. This is only possible for the file based preferences implementation
+	 * (e.g. Linux), otherwise <code>null</code> is returned.
+	 */
+	@Override
+	public Object stamp() {
+		if (!isFileBased())
+			return null;
+		var stamp = new ArrayList<Object>();
+		stamp(stamp, directory(Scope.USER));
+		stamp(stamp, directory(Scope.SYSTEM));
+		return stamp;
+	}
+
+	/**
+	 * The directory of each scope, and the directory of each app in them, as
+	 * each app's preferences are in its own file. This is only possible for the
+	 * file based preferences implementation.
+	 */
+	@Override
+	public List<Path> watchDirectories() {
+		if (!isFileBased())
+			return Collections.emptyList();
+		var dirs = new ArrayList<Path>();
+		for (var scope : Scope.values()) {
+			var dir = directory(scope);
+			if (Files.isDirectory(dir)) {
+				dirs.add(dir);
+				try (var str = Files.newDirectoryStream(dir, Files::isDirectory)) {
+					str.forEach(dirs::add);
+				} catch (IOException ioe) {
+				}
+			}
+		}
+		return dirs;
+	}
+
+	Preferences root(Scope scope) {
+		if (scope == Scope.SYSTEM)
+			return Preferences.systemNodeForPackage(AppRegistry.class).node("registry");
+		else
+			return Preferences.userNodeForPackage(AppRegistry.class).node("registry");
+	}
+
+	private Path directory(Scope scope) {
+		return rootDirectory(scope).resolve(root(scope).absolutePath().substring(1));
+	}
+
+	private static Path rootDirectory(Scope scope) {
+		if (scope == Scope.SYSTEM) {
+			var root = Paths.get(System.getProperty("java.util.prefs.systemRoot", "/etc/.java"), ".systemPrefs");
+			if (!Files.exists(root)) {
+				/* As FileSystemPreferences does */
+				root = Paths.get(System.getProperty("java.home"), ".systemPrefs");
+			}
+			return root;
+		} else {
+			return Paths.get(System.getProperty("java.util.prefs.userRoot", System.getProperty("user.home")), ".java",
+					".userPrefs");
+		}
+	}
+
+	private static boolean isFileBased() {
+		return Preferences.userRoot().getClass().getName().equals("java.util.prefs.FileSystemPreferences");
+	}
+
+	private static void stamp(List<Object> stamp, Path dir) {
+		if (!Files.isDirectory(dir)) {
+			stamp.add(dir.toString());
+			return;
+		}
+		try (var str = Files.newDirectoryStream(dir)) {
+			stamp.add(Files.getLastModifiedTime(dir).toMillis());
+			var children = new ArrayList<Path>();
+			str.forEach(children::add);
+			Collections.sort(children);
+			for (var child : children) {
+				var prefs = child.resolve("prefs.xml");
+				stamp.add(child.getFileName().toString());
+				try {
+					var attrs = Files.readAttributes(prefs, BasicFileAttributes.class);
+					stamp.add(attrs.lastModifiedTime().toMillis());
+					stamp.add(attrs.size());
+				} catch (FileSystemException fse) {
+					/* Not yet written, or not a node, e.g. the registry node's own prefs.xml */
+				}
+			}
+		} catch (IOException ioe) {
+			/* Can't be checked, so will always appear changed */
+			stamp.add(new Object());
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.sshtools.jaul;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the rate at which downloads transfer data. One limiter
+ * may be shared by any number of downloads (and download segments), which
+ * between them will not exceed the rate. Up to one second's worth of data may
+ * be transferred in a burst after being idle.
+ * <p>
+ * The rate may be changed at any time, including while downloads are in
+ * progress.
+ */
+public final class RateLimiter {
+
+	private final LongSupplier clock;
+
+	private long rate;
+	private double tokens;
+	private long last;
+
+	/**
+	 * Create an unlimited limiter.
+	 */
+	public RateLimiter() {
+		this(0);
+	}
+
+	/**
+	 * Create a limiter.
+	 *
+	 * @param rate bytes per second, or zero for unlimited
+	 */
+	public RateLimiter(long rate) {
+		this(rate, System::nanoTime);
+	}
+
+	/* The clock gives nanoseconds, as System.nanoTime() does */
+	RateLimiter(long rate, LongSupplier clock) {
+		this.clock = clock;
+		last = clock.getAsLong();
+		setRate(rate);
+	}
+
+	public synchronized long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Set the rate. Downloads waiting on the limiter are woken so they use the new
+	 * rate straight away.
+	 *
+	 * @param rate bytes per second, or zero for unlimited
+	 */
+	public synchronized void setRate(long rate) {
+		if (rate < 0)
+			throw new IllegalArgumentException("Rate may not be negative.");
+		refill();
+		this.rate = rate;
+		tokens = rate == 0 ? 0 : Math.min(tokens, rate);
+		notifyAll();
+	}
+
+	/**
+	 * Take tokens for data that has just been transferred, waiting until the
+	 * bucket is no longer in debt.
+	 *
+	 * @param bytes number of bytes transferred
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized void acquire(int bytes) throws InterruptedException {
+		if (rate == 0)
+			return;
+		refill();
+		tokens -= bytes;
+		while (tokens < 0 && rate > 0) {
+			wait(Math.max(1, (long) Math.ceil(-tokens * 1000d / rate)));
+			refill();
+		}
+	}
+
+	private void refill() {
+		var now = clock.getAsLong();
+		if (rate > 0)
+			tokens = Math.min(rate, tokens + (now - last) * (double) rate / 1_000_000_000d);
+		last = now;
+	}
+}
@@ -87,6 +87,8 @@ public class RegisterJaulAppAction extends AbstractInstallAction implements Jaul
 		 * 
 		 * $JDK_HOME/jre/.systemPrefs/.....
 		 */
+		if(!(AppRegistry.get().getBackend() instanceof PreferencesRegistryBackend))
+			return;
 		try {
 			Path javahome = Paths.get(System.getProperty("java.home"));
 			Path sysprefs = javahome.resolve(".systemPrefs");
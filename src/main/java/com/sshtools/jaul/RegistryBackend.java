@@ -0,0 +1,121 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.sshtools.jaul.AppRegistry.Scope;
+
+/**
+ * Stores the entries of the {@link AppRegistry}, one per registered app, each
+ * a set of string properties keyed by app ID. Each {@link Scope} is stored
+ * separately.
+ * <p>
+ * The backend used is chosen by the <code>jaul.registryBackend</code> system
+ * property, which may be <code>preferences</code> (the default, see
+ * {@link PreferencesRegistryBackend}), <code>file</code> (see
+ * {@link FileRegistryBackend}), or the class name of any other implementation
+ * with a public no-argument constructor.
+ * <p>
+ * Only the registry itself is stored by the backend. Per-app settings such as
+ * the phase are always kept in {@link java.util.prefs.Preferences}.
+ */
+public interface RegistryBackend {
+
+	/**
+	 * Copy all entries of a scope from one backend to another, e.g. to migrate
+	 * from {@link PreferencesRegistryBackend} to {@link FileRegistryBackend}.
+	 * Entries already in the target with the same IDs are replaced.
+	 *
+	 * @param from  backend to copy from
+	 * @param to    backend to copy to
+	 * @param scope scope
+	 * @return number of entries copied
+	 * @throws IOException on error
+	 */
+	static int migrate(RegistryBackend from, RegistryBackend to, Scope scope) throws IOException {
+		var copied = 0;
+		for (var id : from.list(scope)) {
+			var entry = from.get(scope, id);
+			if (entry.isPresent()) {
+				to.put(scope, id, entry.get());
+				copied++;
+			}
+		}
+		to.flush(scope);
+		return copied;
+	}
+
+	/**
+	 * List the IDs of all entries, including any changes made by other
+	 * processes.
+	 *
+	 * @param scope scope
+	 * @return IDs
+	 * @throws IOException on error
+	 */
+	List<String> list(Scope scope) throws IOException;
+
+	/**
+	 * Get an entry.
+	 *
+	 * @param scope scope
+	 * @param id    app ID
+	 * @return properties of entry, or empty if there is no such entry
+	 * @throws IOException on error
+	 */
+	Optional<Map<String, String>> get(Scope scope, String id) throws IOException;
+
+	/**
+	 * Add or replace an entry.
+	 *
+	 * @param scope      scope
+	 * @param id         app ID
+	 * @param properties properties of entry
+	 * @throws IOException on error
+	 */
+	void put(Scope scope, String id, Map<String, String> properties) throws IOException;
+
+	/**
+	 * Remove an entry.
+	 *
+	 * @param scope scope
+	 * @param id    app ID
+	 * @return whether there was an entry to remove
+	 * @throws IOException on error
+	 */
+	boolean remove(Scope scope, String id) throws IOException;
+
+	/**
+	 * Make sure all changes have been written to permanent storage.
+	 *
+	 * @param scope scope
+	 * @throws IOException on error
+	 */
+	void flush(Scope scope) throws IOException;
+
+	/**
+	 * Get a value that changes whenever entries in any scope change, including
+	 * changes made by other processes. It should be cheap to get, as it is used
+	 * to tell when registry snapshots need to be rebuilt.
+	 *
+	 * @return stamp, or <code>null</code> if changes cannot be detected
+	 */
+	Object stamp();
+
+	/**
+	 * Get the directories holding the registry, so they may be watched for
+	 * changes, see {@link AppRegistry#addRegistryListener(AppRegistry.RegistryListener)}.
+	 * A change to anything in them may be a change to the registry. They may
+	 * be different once the registry has changed. If there are none, the
+	 * registry is polled for changes instead.
+	 *
+	 * @return directories
+	 */
+	default List<Path> watchDirectories() {
+		return Collections.emptyList();
+	}
+}
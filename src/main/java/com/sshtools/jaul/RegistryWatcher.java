@@ -0,0 +1,185 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.sshtools.jaul.AppRegistry.App;
+import com.sshtools.jaul.AppRegistry.RegistryEvent;
+import com.sshtools.jaul.AppRegistry.Scope;
+import com.sshtools.jaul.AppRegistry.Snapshot;
+
+/**
+ * Watches the directories of a {@link RegistryBackend} on its own thread, and
+ * delivers a {@link RegistryEvent} for every app that has been added, removed
+ * or changed since the last time it looked.
+ * <p>
+ * Changes usually arrive as bursts of file events (e.g. a file being replaced,
+ * or several apps being registered by one installer), so the registry is only
+ * reloaded once no more events have arrived for a short time. If the backend
+ * has no directories to watch, or a change is missed, the registry is checked
+ * for changes every {@link AppRegistry#DEFAULT_SNAPSHOT_TIME} instead.
+ */
+final class RegistryWatcher {
+
+	/**
+	 * Default time to wait for further file events before reloading the
+	 * registry, 250 milliseconds unless overridden by the
+	 * <code>jaul.registryWatchDelay</code> system property.
+	 */
+	final static long DEFAULT_DELAY = Long.getLong("jaul.registryWatchDelay", 250);
+
+	private final AppRegistry registry;
+	private final Consumer<RegistryEvent> sink;
+	private final long delay;
+
+	private Thread thread;
+	private long generation;
+
+	RegistryWatcher(AppRegistry registry, Consumer<RegistryEvent> sink) {
+		this(registry, DEFAULT_DELAY, sink);
+	}
+
+	RegistryWatcher(AppRegistry registry, long delay, Consumer<RegistryEvent> sink) {
+		this.registry = registry;
+		this.delay = delay;
+		this.sink = sink;
+	}
+
+	/**
+	 * Start watching, if not already. Only changes made after this are
+	 * delivered.
+	 * <p>
+	 * The registry is read without holding any lock, as it may take some time
+	 * and listeners may use the registry from other threads. If the watcher is
+	 * closed meanwhile, it is not started.
+	 */
+	void start() {
+		long started;
+		synchronized (this) {
+			if (thread != null)
+				return;
+			started = generation;
+		}
+		var apps = index(registry.refresh());
+		synchronized (this) {
+			if (thread == null && started == generation) {
+				thread = new Thread(() -> run(apps), "JaulRegistryWatch");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Stop watching. Watching may be started again later.
+	 */
+	void close() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+			generation++;
+		}
+		if (t != null)
+			t.interrupt();
+	}
+
+	private void run(Map<String, App> apps) {
+		var keys = new HashMap<Path, WatchKey>();
+		try (var watchService = FileSystems.getDefault().newWatchService()) {
+			while (isCurrent()) {
+				watch(watchService, keys);
+
+				Snapshot snapshot;
+				var key = watchService.poll(AppRegistry.DEFAULT_SNAPSHOT_TIME.toMillis(), TimeUnit.MILLISECONDS);
+				if (key == null) {
+					/* Cheap unless the registry appears to have changed */
+					snapshot = registry.snapshot();
+				} else {
+					var until = System.currentTimeMillis() + AppRegistry.DEFAULT_SNAPSHOT_TIME.toMillis();
+					do {
+						key.pollEvents();
+						key.reset();
+					} while (System.currentTimeMillis() < until
+							&& (key = watchService.poll(delay, TimeUnit.MILLISECONDS)) != null);
+					snapshot = registry.refresh();
+				}
+
+				apps = compare(apps, index(snapshot));
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+		} catch (IOException ioe) {
+			Logging.error("Failed to watch registry.", ioe);
+		}
+	}
+
+	private synchronized boolean isCurrent() {
+		return thread == Thread.currentThread();
+	}
+
+	private void watch(WatchService watchService, Map<Path, WatchKey> keys) {
+		var dirs = new HashSet<>(registry.getBackend().watchDirectories());
+		for (var it = keys.entrySet().iterator(); it.hasNext();) {
+			var en = it.next();
+			if (!dirs.contains(en.getKey()) || !en.getValue().isValid()) {
+				en.getValue().cancel();
+				it.remove();
+			}
+		}
+		for (var dir : dirs) {
+			if (!keys.containsKey(dir)) {
+				try {
+					keys.put(dir, dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+				} catch (IOException ioe) {
+					Logging.debug("Cannot watch {0}. {1}", dir, ioe.getMessage());
+				}
+			}
+		}
+	}
+
+	private Map<String, App> compare(Map<String, App> was, Map<String, App> now) {
+		for (var en : was.entrySet()) {
+			if (!now.containsKey(en.getKey()))
+				fire(new RegistryEvent(RegistryEvent.Type.REMOVED, en.getValue()));
+		}
+		for (var en : now.entrySet()) {
+			var previous = was.get(en.getKey());
+			if (previous == null)
+				fire(new RegistryEvent(RegistryEvent.Type.ADDED, en.getValue()));
+			else if (!previous.isSameAs(en.getValue()))
+				fire(new RegistryEvent(RegistryEvent.Type.CHANGED, en.getValue()));
+		}
+		return now;
+	}
+
+	private void fire(RegistryEvent event) {
+		try {
+			sink.accept(event);
+		} catch (RuntimeException re) {
+			Logging.error("Registry listener failed.", re);
+		}
+	}
+
+	private static Map<String, App> index(Snapshot snapshot) {
+		var apps = new LinkedHashMap<String, App>();
+		for (var scope : Scope.values()) {
+			for (var app : snapshot.getApps(Optional.of(scope))) {
+				apps.put(scope.name() + ":" + app.getId(), app);
+			}
+		}
+		return apps;
+	}
+}
@@ -0,0 +1,90 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts files in their final place while avoiding copying them where possible.
+ * Files are moved (renamed) when the source and target are on the same file
+ * system, and only copied when they are not. Copies are made with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the operating system may do them without passing the data through the
+ * JVM.
+ * <p>
+ * In all cases the target is replaced atomically, so it is never seen partially
+ * written. The total number of bytes copied is kept, see {@link #getBytesCopied()}.
+ */
+public final class Staging {
+
+	private final static AtomicLong BYTES_COPIED = new AtomicLong();
+
+	/**
+	 * Get the total number of bytes copied because a file could not be moved.
+	 * Once everything is set up, this should stay at zero.
+	 *
+	 * @return bytes copied
+	 */
+	public static long getBytesCopied() {
+		return BYTES_COPIED.get();
+	}
+
+	/**
+	 * Move a file, replacing the target if it exists.
+	 *
+	 * @param source source
+	 * @param target target
+	 * @return target
+	 * @throws IOException on error
+	 */
+	public static Path move(Path source, Path target) throws IOException {
+		try {
+			return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException amnse) {
+			copy(source, target);
+			Files.delete(source);
+			return target;
+		}
+	}
+
+	/**
+	 * Copy a file, replacing the target if it exists.
+	 *
+	 * @param source source
+	 * @param target target
+	 * @return target
+	 * @throws IOException on error
+	 */
+	public static Path copy(Path source, Path target) throws IOException {
+		var tmp = temporary(target);
+		try {
+			long copied = 0;
+			try (var in = FileChannel.open(source);
+					var out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+				var size = in.size();
+				while (copied < size) {
+					copied += in.transferTo(copied, size - copied, out);
+				}
+			}
+			Files.setLastModifiedTime(tmp, Files.getLastModifiedTime(source));
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Logging.info("Copied {0} bytes from {1} to {2}, {3} bytes copied in total.", copied, source, target,
+					BYTES_COPIED.addAndGet(copied));
+			return target;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static Path temporary(Path target) {
+		return target.resolveSibling(target.getFileName() + ".staging");
+	}
+
+	private Staging() {
+	}
+}
@@ -1,24 +1,29 @@
 package com.sshtools.jaul;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse.BodyHandlers;
-import java.time.Duration;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.install4j.api.Util;
 
@@ -28,39 +33,45 @@ public class UpdateDescriptor {
 
 	@Serialization
 	public enum MediaType {
-		INSTALLER, RPM, DEB, ARCHIVE;
+		INSTALLER(".*\\.sh|.*\\.exe|.*\\.msi|.*\\.dmg"),
+		RPM(".*\\.rpm"),
+		DEB(".*\\.deb"),
+		ARCHIVE(".*\\.zip|.*\\.tgz|.*\\.tar\\.gz");
+
+		private final Pattern regex;
+
+		MediaType(String pattern) {
+			this.regex = Pattern.compile(pattern);
+		}
 
 		public String pattern() {
-			switch (this) {
-			case INSTALLER:
-				return ".*\\.sh|.*\\.exe|.*\\.msi|.*\\.dmg";
-			case RPM:
-				return ".*\\.rpm";
-			case DEB:
-				return ".*\\.deb";
-			case ARCHIVE:
-				return ".*\\.zip|.*\\.tgz|.*\\.tar\\.gz";
-			default:
-				throw new UnsupportedOperationException();
-			}
+			return regex.pattern();
+		}
+
+		public boolean matches(String fileName) {
+			return regex.matcher(fileName).matches();
 		}
 	}
 
 	@Serialization
 	public enum MediaOS {
-		LINUX, WINDOWS, MACOS, UNIX;
+		LINUX(".*-linux-.*\\.sh|.*-linux-.*\\.zip|.*-linux-.*\\.tar\\.gz|.*-linux-.*\\.tgz|.*-windows-.*\\.tar\\.gz|.*\\.rpm|.*\\.deb"),
+		WINDOWS(".*\\.msi|.*\\.exe|.*-windows-.*\\.zip|.*-windows-.*\\.tgz|.*-windows-.*\\.tar\\.gz"),
+		MACOS(".*\\.dmg|.*-mac-.*\\.zip|.*-macos-.*\\.tgz|.*-macos-.*\\.tar\\.gz|.*-mac-.*\\.zip|.*-macos-.*\\.tgz|.*-macos-.*\\.tar\\.gz"),
+		UNIX(".*\\.sh|.*-unix-.*\\.zip|.*-unix-.*\\.tgz|.*-unix-.*\\.tar\\.gz");
+
+		private final Pattern regex;
+
+		MediaOS(String pattern) {
+			this.regex = Pattern.compile(pattern);
+		}
 
 		public String pattern() {
-			switch (this) {
-			case LINUX:
-				return ".*-linux-.*\\.sh|.*-linux-.*\\.zip|.*-linux-.*\\.tar\\.gz|.*-linux-.*\\.tgz|.*-windows-.*\\.tar\\.gz|.*\\.rpm|.*\\.deb";
-			case WINDOWS:
-				return ".*\\.msi|.*\\.exe|.*-windows-.*\\.zip|.*-windows-.*\\.tgz|.*-windows-.*\\.tar\\.gz";
-			case MACOS:
-				return ".*\\.dmg|.*-mac-.*\\.zip|.*-macos-.*\\.tgz|.*-macos-.*\\.tar\\.gz|.*-mac-.*\\.zip|.*-macos-.*\\.tgz|.*-macos-.*\\.tar\\.gz";
-			default:
-				return ".*\\.sh|.*-unix-.*\\.zip|.*-unix-.*\\.tgz|.*-unix-.*\\.tar\\.gz";
-			}
+			return regex.pattern();
+		}
+
+		public boolean matches(String fileName) {
+			return regex.matcher(fileName).matches();
 		}
 
 		public static MediaOS get() {
@@ -78,21 +89,24 @@ public class UpdateDescriptor {
 
 	@Serialization
 	public enum MediaArch {
-		X86, X86_64, ARM32, AARCH64, XPLATFORM;
+		X86(".*-x86-.*"),
+		X86_64(".*-(x64|amd64|x8664|x86_64|x86-64)-.*"),
+		ARM32(".*-(arm.*)-.*"),
+		AARCH64(".*-(aarch64|arm64)-.*"),
+		XPLATFORM(".*");
+
+		private final Pattern regex;
+
+		MediaArch(String pattern) {
+			this.regex = Pattern.compile(pattern);
+		}
 
 		public String pattern() {
-			switch (this) {
-			case X86:
-				return ".*-x86-.*";
-			case X86_64:
-				return ".*-(x64|amd64|x8664|x86_64|x86-64)-.*";
-			case AARCH64:
-				return ".*-(aarch64|arm64)-.*";
-			case ARM32:
-				return ".*-(arm.*)-.*";
-			default:
-				return ".*";
-			}
+			return regex.pattern();
+		}
+
+		public boolean matches(String fileName) {
+			return regex.matcher(fileName).matches();
 		}
 
 		public static MediaArch get() {
@@ -113,24 +127,112 @@ public class UpdateDescriptor {
 		}
 	}
 
+	/**
+	 * A binary delta that rebuilds a {@link Media} file from the media of an older
+	 * version. See {@link DeltaPatch}. Listed in the descriptor as a child of the
+	 * entry it rebuilds, e.g.
+	 * <pre>
+	 * &lt;patch fromVersion="1.0.0" fromSha256Sum="..." fileName="app-1.0.0-1.1.0.jdelta" fileSize="..." sha256Sum="..."/&gt;
+	 * </pre>
+	 * where <code>fromSha256Sum</code> is the checksum of the older media, and
+	 * <code>sha256Sum</code> the checksum of the patch itself.
+	 */
+	public final static class Patch {
+		private final String fromVersion;
+		private final byte[] fromSha256;
+		private final String name;
+		private final URL base;
+		private final long fileSize;
+		private final byte[] sha256;
+
+		Patch(String fromVersion, byte[] fromSha256, String name, URL base, long fileSize, byte[] sha256) {
+			this.fromVersion = fromVersion;
+			this.fromSha256 = fromSha256;
+			this.name = name;
+			this.base = base;
+			this.fileSize = fileSize;
+			this.sha256 = sha256;
+		}
+
+		public String fromVersion() {
+			return fromVersion;
+		}
+
+		public String fromSha256Sum() {
+			return toHex(fromSha256);
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public URL url() {
+			try {
+				return new URL(base, name);
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException(MessageFormat.format("Invalid patch URL for {0}.", name), e);
+			}
+		}
+
+		public long fileSize() {
+			return fileSize;
+		}
+
+		public String sha256Sum() {
+			return toHex(sha256);
+		}
+
+		byte[] fromSha256() {
+			return fromSha256;
+		}
+
+		byte[] sha256() {
+			return sha256;
+		}
+
+		@Override
+		public String toString() {
+			return "Patch [fromVersion=" + fromVersion + ", name=" + name + ", fileSize=" + fileSize + "]";
+		}
+	}
+
+	/**
+	 * A single downloadable media file. To keep large descriptors small in memory,
+	 * all media share the descriptor's base {@link URL}, the full URL being
+	 * resolved only when {@link #url()} is first called, and checksums are held
+	 * as raw bytes. The checksum text is only kept as well when it is not the
+	 * lower case hex of those bytes (e.g. upper case, or invalid).
+	 */
 	public final static class Media {
 		private final MediaKey key;
-		private final URL url;
+		private final URL base;
 		private final long fileSize;
 		private final String name;
+		private final byte[] md5;
+		private final byte[] sha256;
 		private final String md5Sum;
 		private final String sha256Sum;
 		private final String version;
 
-		Media(MediaKey key, String name, URL url, long fileSize, String md5Sum, String sha256Sum, String version) {
+		private volatile URL url;
+		private List<Patch> patches = Collections.emptyList();
+
+		Media(MediaKey key, String name, URL base, long fileSize, byte[] md5, byte[] sha256, String version) {
+			this(key, name, base, fileSize, md5, null, sha256, null, version);
+		}
+
+		Media(MediaKey key, String name, URL base, long fileSize, byte[] md5, String md5Sum, byte[] sha256,
+				String sha256Sum, String version) {
 			super();
 			this.version = version;
 			this.name = name;
 			this.key = key;
-			this.url = url;
+			this.base = base;
 			this.fileSize = fileSize;
-			this.md5Sum = md5Sum;
-			this.sha256Sum = sha256Sum;
+			this.md5 = md5;
+			this.sha256 = sha256;
+			this.md5Sum = Objects.equals(md5Sum, toHex(md5)) ? null : md5Sum;
+			this.sha256Sum = Objects.equals(sha256Sum, toHex(sha256)) ? null : sha256Sum;
 		}
 
 		public final String version() {
@@ -142,7 +244,15 @@ public class UpdateDescriptor {
 		}
 
 		public final URL url() {
-			return url;
+			var u = url;
+			if (u == null) {
+				try {
+					u = url = new URL(base, name);
+				} catch (MalformedURLException e) {
+					throw new IllegalStateException(MessageFormat.format("Invalid media URL for {0}.", name), e);
+				}
+			}
+			return u;
 		}
 
 		public final long fileSize() {
@@ -153,18 +263,78 @@ public class UpdateDescriptor {
 			return name;
 		}
 
+		/**
+		 * Get the MD5 checksum as it appears in the descriptor. It may be in either
+		 * case, so should be compared without regard to case.
+		 *
+		 * @return checksum, or <code>null</code> if there is none
+		 */
 		public final String md5Sum() {
-			return md5Sum;
+			return md5Sum == null ? toHex(md5) : md5Sum;
 		}
 
+		/**
+		 * Get the SHA-256 checksum as it appears in the descriptor. It may be in
+		 * either case, so should be compared without regard to case.
+		 *
+		 * @return checksum, or <code>null</code> if there is none
+		 */
 		public final String sha256Sum() {
-			return sha256Sum;
+			return sha256Sum == null ? toHex(sha256) : sha256Sum;
+		}
+
+		/**
+		 * Get the MD5 checksum as raw bytes.
+		 *
+		 * @return checksum, or <code>null</code> if there is none
+		 */
+		public final byte[] md5() {
+			return md5 == null ? null : md5.clone();
+		}
+
+		/**
+		 * Get the SHA-256 checksum as raw bytes.
+		 *
+		 * @return checksum, or <code>null</code> if there is none
+		 */
+		public final byte[] sha256() {
+			return sha256 == null ? null : sha256.clone();
+		}
+
+		/**
+		 * Get the patches that may be used to rebuild this media from older versions.
+		 *
+		 * @return patches
+		 */
+		public final List<Patch> patches() {
+			return Collections.unmodifiableList(patches);
+		}
+
+		/**
+		 * Get the patch that rebuilds this media from the given version, if there is
+		 * one.
+		 *
+		 * @param fromVersion version to patch from
+		 * @return patch
+		 */
+		public final Optional<Patch> patch(String fromVersion) {
+			for (var patch : patches) {
+				if (patch.fromVersion().equals(fromVersion))
+					return Optional.of(patch);
+			}
+			return Optional.empty();
+		}
+
+		void addPatch(Patch patch) {
+			if (patches.isEmpty())
+				patches = new ArrayList<>(1);
+			patches.add(patch);
 		}
 
 		@Override
 		public String toString() {
-			return "Media [key=" + key + ", url=" + url + ", fileSize=" + fileSize + ", name=" + name + ", md5Sum="
-					+ md5Sum + ", sha256Sum=" + sha256Sum + ", version=" + version + "]";
+			return "Media [key=" + key + ", url=" + url() + ", fileSize=" + fileSize + ", name=" + name + ", md5Sum="
+					+ md5Sum() + ", sha256Sum=" + sha256Sum() + ", version=" + version + "]";
 		}
 	}
 
@@ -243,6 +413,19 @@ public class UpdateDescriptor {
 
 	}
 
+	private final static Comparator<String> VARIANT_ORDER = (v1, v2) -> {
+		if (v1 == null) {
+			if (v2 == null)
+				return 0;
+			else
+				return -1;
+		} else if (v2 == null) {
+			return 1;
+		} else {
+			return v1.compareTo(v2);
+		}
+	};
+
 	private final Map<MediaKey, Media> mediaUrls = new TreeMap<>((o1, o2) -> {
 		var cmp = o1.os().compareTo(o2.os());
 		if (cmp == 0) {
@@ -250,18 +433,7 @@ public class UpdateDescriptor {
 			if (cmp == 0) {
 				cmp = o1.type().compareTo(o2.type());
 				if (cmp == 0) {
-					return Objects.compare(o1.variant(), o2.variant(), (v1, v2) -> {
-						if (v1 == null) {
-							if (v2 == null)
-								return 0;
-							else
-								return -1;
-						} else if (v2 == null) {
-							return 1;
-						} else {
-							return v1.compareTo(v2);
-						}
-					});
+					return VARIANT_ORDER.compare(o1.variant(), o2.variant());
 				} else {
 					return cmp;
 				}
@@ -273,123 +445,206 @@ public class UpdateDescriptor {
 		}
 	});
 
+	/*
+	 * Index of the preferred media (lowest variant) for each os, arch and type, so
+	 * lookups without a variant do not need to scan every entry
+	 */
+	private final Map<MediaOS, Map<MediaArch, Map<MediaType, Media>>> preferred = new EnumMap<>(MediaOS.class);
+
+	private String baseUrl;
+	private URL base;
+	private final List<URL> mirrors = new ArrayList<>();
+
+	private final static XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+	private final static MediaType[] MEDIA_TYPES = MediaType.values();
+	private final static MediaOS[] MEDIA_OSES = MediaOS.values();
+	private final static MediaArch[] MEDIA_ARCHES = MediaArch.values();
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Get a descriptor, using the local {@link DescriptorCache} to avoid downloading
+	 * it again if it has not changed.
+	 *
+	 * @param uri uri of descriptor
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
 	public static UpdateDescriptor get(URI uri) throws IOException {
-		try {
-			var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build();
-			var request = HttpRequest.newBuilder().uri(uri).timeout(Duration.ofMinutes(2)).GET().build();
-
-			var response = client.send(request, BodyHandlers.ofInputStream());
+		return DescriptorCache.get().descriptor(uri);
+	}
 
-			if (response.statusCode() == 200) {
-				return new UpdateDescriptor(response.body());
+	/**
+	 * Get a descriptor that only contains the media that may satisfy the given key
+	 * (including the {@link MediaArch#XPLATFORM} fallback used by
+	 * {@link #getMedia()}). The media found is the same as {@link #find(MediaKey)}
+	 * would find in the complete descriptor. Parsing stops early only once nothing
+	 * later in the document could be preferred, i.e. when the key has a variant
+	 * and an entry with exactly that key has been read.
+	 *
+	 * @param uri uri of descriptor
+	 * @param key key of media required
+	 * @return descriptor
+	 * @throws IOException on error
+	 */
+	public static UpdateDescriptor get(URI uri, MediaKey key) throws IOException {
+		return DescriptorCache.get().descriptor(uri, key);
+	}
 
-			} else if (response.statusCode() == 403 || response.statusCode() == 404) {
-				throw new FileNotFoundException(uri.toString());
+	/**
+	 * Get a descriptor without blocking the calling thread. Many of these may be
+	 * in progress at once, allowing several applications to be checked at the same
+	 * time. Cancelling the returned future aborts the request.
+	 *
+	 * @param uri uri of descriptor
+	 * @return future descriptor
+	 */
+	public static CompletableFuture<UpdateDescriptor> getAsync(URI uri) {
+		return DescriptorCache.get().descriptorAsync(uri);
+	}
 
-			} else {
-				throw new IOException("Unexpected response code for " + uri + ". " + response.statusCode());
-			}
-		} catch (InterruptedException e) {
-			throw new IOException("Failed to load remote descriptor.", e);
-		}
+	/**
+	 * Asynchronous version of {@link #get(URI, MediaKey)}.
+	 *
+	 * @param uri uri of descriptor
+	 * @param key key of media required
+	 * @return future descriptor
+	 */
+	public static CompletableFuture<UpdateDescriptor> getAsync(URI uri, MediaKey key) {
+		return DescriptorCache.get().descriptorAsync(uri, key);
 	}
 
 	public UpdateDescriptor(InputStream in) throws IOException {
-		try {
-			var docBuilderFactory = DocumentBuilderFactory.newInstance();
-			var docBuilder = docBuilderFactory.newDocumentBuilder();
-			var doc = docBuilder.parse(in);
-			var ud = doc.getDocumentElement();
-			var mediaBaseUrl = ud.getAttributes().getNamedItem("baseUrl").getTextContent();
-			var entries = doc.getDocumentElement().getElementsByTagName("entry");
-
-			for (int i = 0; i < entries.getLength(); i++) {
-				var el = entries.item(i);
-
-				var fileSize = Long.parseLong(el.getAttributes().getNamedItem("fileSize").getTextContent());
-				var md5Sum = getAttrVal(el, "md5Sum");
-				var version = getAttrVal(el, "newVersion");
-				var sha256Sum = getAttrVal(el, "sha256Sum");
-				var fileName = el.getAttributes().getNamedItem("fileName").getTextContent();
-				var bundledJre = el.getAttributes().getNamedItem("bundledJre").getTextContent();
-
-				var idx = fileName.lastIndexOf('.');
-				var variant = fileName.substring(idx + 1);
-				if (variant.equals("gz") || variant.equals("bz")) {
-					idx = fileName.lastIndexOf('.', idx - 1);
-					if (idx != -1)
-						variant = fileName.substring(idx + 1);
-				}
+		this(in, Optional.empty());
+	}
 
-				MediaType mediaType = null;
-				for (var type : MediaType.values()) {
-					if (fileName.matches(type.pattern())) {
-						mediaType = type;
-						break;
-					}
-				}
-				if (mediaType == null) {
-					Logging.warn("Skipping {0} in descriptor, it doesn't match any media type.", fileName);
-					continue;
-				}
+	/**
+	 * Parse a descriptor, only keeping media that may satisfy the given key. See
+	 * {@link #get(URI, MediaKey)}.
+	 *
+	 * @param in stream
+	 * @param key key of media required
+	 * @throws IOException on error
+	 */
+	public UpdateDescriptor(InputStream in, MediaKey key) throws IOException {
+		this(in, Optional.of(key));
+	}
 
-				MediaOS mediaOs = null;
-				for (var os : MediaOS.values()) {
-					if (fileName.matches(os.pattern())) {
-						mediaOs = os;
-						break;
-					}
-				}
-				if (mediaOs == null) {
-					Logging.warn("Skipping {0} in descriptor, it doesn't match any OS.", fileName);
-					continue;
-				}
+	UpdateDescriptor(String baseUrl) throws MalformedURLException {
+		this.baseUrl = baseUrl;
+		this.base = new URL(baseUrl);
+	}
 
-				var mediaArch = MediaArch.XPLATFORM;
-				for (var arch : MediaArch.values()) {
-					if (fileName.matches(arch.pattern())) {
-						if (bundledJre.matches("linux-.*") && mediaOs == MediaOS.UNIX) {
-							mediaOs = MediaOS.LINUX;
+	private UpdateDescriptor(InputStream in, Optional<MediaKey> wanted) throws IOException {
+		try {
+			var rdr = XML_INPUT_FACTORY.createXMLStreamReader(in);
+			/* Versions and variants are usually the same for every entry, so only keep one copy */
+			var strings = new HashMap<String, String>();
+			try {
+				Media last = null;
+				var found = false;
+				while (rdr.hasNext()) {
+					var event = rdr.next();
+					if (event == XMLStreamConstants.END_ELEMENT) {
+						/* Patches of the entry that was wanted are read before stopping */
+						if (found && rdr.getLocalName().equals("entry"))
+							break;
+						continue;
+					}
+					if (event != XMLStreamConstants.START_ELEMENT)
+						continue;
+
+					if (baseUrl == null) {
+						baseUrl = requiredAttr(rdr, "baseUrl");
+						base = new URL(baseUrl);
+					} else if (rdr.getLocalName().equals("entry")) {
+						var media = parseEntry(rdr, base, strings);
+						last = null;
+						if (media != null) {
+							var offered = offered(media, wanted, false);
+							if (offered.isPresent()) {
+								last = media;
+								found = offered.get();
+							}
 						}
-						mediaArch = arch;
-						break;
+					} else if (rdr.getLocalName().equals("patch") && last != null) {
+						last.addPatch(parsePatch(rdr, base, strings));
+					} else if (rdr.getLocalName().equals("mirror")) {
+						addMirror(requiredAttr(rdr, "baseUrl"));
 					}
 				}
+			} finally {
+				rdr.close();
+			}
+		} catch (XMLStreamException | IllegalArgumentException | MalformedURLException e) {
+			throw new IOException("Failed to load remote descriptor.", e);
+		}
+	}
 
-				var mediaKey = new MediaKey(mediaOs, mediaArch, mediaType, variant);
-				var media = new Media(mediaKey, fileName, new URL(new URL(mediaBaseUrl), fileName), fileSize, md5Sum,
-						sha256Sum, version);
-				mediaUrls.put(mediaKey, media);
+	public final String getBaseUrl() {
+		return baseUrl;
+	}
 
-			}
+	final URL getBase() {
+		return base;
+	}
 
-		} catch (ParserConfigurationException | SAXException e) {
-			throw new IOException("Failed to load remote descriptor.", e);
+	/**
+	 * Get the base URLs of mirrors, which have the same files as the
+	 * {@link #getBaseUrl() base URL}. Declared in the descriptor as
+	 * <code>&lt;mirror baseUrl="..."/&gt;</code> elements, written in the same
+	 * form as the base URL (i.e. with a trailing slash if it has one).
+	 *
+	 * @return mirror base URLs
+	 */
+	public final List<URL> getMirrors() {
+		return Collections.unmodifiableList(mirrors);
+	}
+
+	/**
+	 * Get the locations of a file on each mirror.
+	 *
+	 * @param url location of file, relative to the base URL
+	 * @return locations on mirrors, empty if there are none or the file is not
+	 *         under the base URL
+	 */
+	public final List<URI> getMirrorLocations(URL url) {
+		var str = url.toExternalForm();
+		var baseStr = base.toExternalForm();
+		if (mirrors.isEmpty() || !str.startsWith(baseStr))
+			return Collections.emptyList();
+		var path = str.substring(baseStr.length());
+		var locations = new ArrayList<URI>(mirrors.size());
+		for (var mirror : mirrors) {
+			try {
+				locations.add(new URL(mirror.toExternalForm() + path).toURI());
+			} catch (MalformedURLException | URISyntaxException e) {
+				Logging.warn("Ignoring invalid mirror location {0}{1}.", mirror, path);
+			}
 		}
+		return locations;
+	}
+
+	void addMirror(String mirrorUrl) throws MalformedURLException {
+		mirrors.add(new URL(mirrorUrl));
 	}
 
 	public final Map<MediaKey, Media> getMediaUrls() {
-		return mediaUrls;
+		return Collections.unmodifiableMap(mediaUrls);
 	}
-	
+
 	public Optional<Media> find(MediaKey key) {
-		var media = mediaUrls.get(key);
-		if(media == null) {
-			if(key.variant == null) {
-				for(var en : mediaUrls.entrySet()) {
-					if(Objects.equals(en.getKey().os, key.os) &&
-							Objects.equals(en.getKey().arch, key.arch) &&
-							Objects.equals(en.getKey().type, key.type)) {
-						return Optional.of(en.getValue());
-					}
+		if (key.variant() == null) {
+			var byArch = preferred.get(key.os());
+			if (byArch != null) {
+				var byType = byArch.get(key.arch());
+				if (byType != null) {
+					return Optional.ofNullable(byType.get(key.type()));
 				}
 			}
 			return Optional.empty();
+		} else {
+			return Optional.ofNullable(mediaUrls.get(key));
 		}
-		else {
-			return Optional.of(media);
-		}
-		
 	}
 
 	public final Optional<Media> getMedia() {
@@ -402,9 +657,178 @@ public class UpdateDescriptor {
 		return media;
 	}
 
-	private String getAttrVal(Node el, String name) {
-		var attr = el.getAttributes().getNamedItem(name);
-		return attr == null ? null : attr.getTextContent();
+	/**
+	 * Add media if it is wanted.
+	 *
+	 * @param media  media
+	 * @param wanted key of media wanted, or empty for all media
+	 * @param sorted whether media is offered in key order, so the first exact
+	 *               match also has the preferred variant
+	 * @return <code>true</code> if what was wanted has been found, and no media
+	 *         offered later could be preferred to it
+	 */
+	boolean offer(Media media, Optional<MediaKey> wanted, boolean sorted) {
+		return offered(media, wanted, sorted).orElse(false);
+	}
+
+	/* Empty if the media was not wanted, otherwise whether nothing offered later could be preferred */
+	private Optional<Boolean> offered(Media media, Optional<MediaKey> wanted, boolean sorted) {
+		if (wanted.isEmpty()) {
+			add(media);
+			return Optional.of(false);
+		} else if (isCandidate(wanted.get(), media.key())) {
+			add(media);
+			var key = media.key();
+			return Optional.of(key.arch() == wanted.get().arch()
+					/* A lower variant may follow unless a variant was asked for, or there is none lower */
+					&& (sorted || wanted.get().variant() != null || key.variant() == null));
+		}
+		return Optional.empty();
+	}
+
+	private void add(Media media) {
+		var key = media.key();
+		mediaUrls.put(key, media);
+		var byType = preferred.computeIfAbsent(key.os(), k -> new EnumMap<>(MediaArch.class))
+				.computeIfAbsent(key.arch(), k -> new EnumMap<>(MediaType.class));
+		var current = byType.get(key.type());
+		if (current == null || VARIANT_ORDER.compare(key.variant(), current.key().variant()) <= 0) {
+			byType.put(key.type(), media);
+		}
+	}
+
+	private static Media parseEntry(XMLStreamReader rdr, URL base, Map<String, String> strings)
+			throws XMLStreamException {
+		var fileSize = Long.parseLong(requiredAttr(rdr, "fileSize"));
+		var md5Sum = rdr.getAttributeValue(null, "md5Sum");
+		var version = intern(strings, rdr.getAttributeValue(null, "newVersion"));
+		var sha256Sum = rdr.getAttributeValue(null, "sha256Sum");
+		var fileName = requiredAttr(rdr, "fileName");
+		var bundledJre = requiredAttr(rdr, "bundledJre");
+
+		var idx = fileName.lastIndexOf('.');
+		var variant = fileName.substring(idx + 1);
+		if (variant.equals("gz") || variant.equals("bz")) {
+			idx = fileName.lastIndexOf('.', idx - 1);
+			if (idx != -1)
+				variant = fileName.substring(idx + 1);
+		}
+
+		MediaType mediaType = null;
+		for (var type : MEDIA_TYPES) {
+			if (type.matches(fileName)) {
+				mediaType = type;
+				break;
+			}
+		}
+		if (mediaType == null) {
+			Logging.warn("Skipping {0} in descriptor, it doesn't match any media type.", fileName);
+			return null;
+		}
+
+		MediaOS mediaOs = null;
+		for (var os : MEDIA_OSES) {
+			if (os.matches(fileName)) {
+				mediaOs = os;
+				break;
+			}
+		}
+		if (mediaOs == null) {
+			Logging.warn("Skipping {0} in descriptor, it doesn't match any OS.", fileName);
+			return null;
+		}
+
+		var mediaArch = MediaArch.XPLATFORM;
+		for (var arch : MEDIA_ARCHES) {
+			if (arch.matches(fileName)) {
+				if (bundledJre.startsWith("linux-") && mediaOs == MediaOS.UNIX) {
+					mediaOs = MediaOS.LINUX;
+				}
+				mediaArch = arch;
+				break;
+			}
+		}
+
+		var mediaKey = new MediaKey(mediaOs, mediaArch, mediaType, intern(strings, variant));
+		return new Media(mediaKey, fileName, base, fileSize, fromHex(fileName, md5Sum), md5Sum,
+				fromHex(fileName, sha256Sum), sha256Sum, version);
+	}
+
+	private static Patch parsePatch(XMLStreamReader rdr, URL base, Map<String, String> strings)
+			throws XMLStreamException {
+		var fileName = requiredAttr(rdr, "fileName");
+		var fromSha256 = fromHex(fileName, requiredAttr(rdr, "fromSha256Sum"));
+		var sha256 = fromHex(fileName, requiredAttr(rdr, "sha256Sum"));
+		if (fromSha256 == null || sha256 == null)
+			throw new XMLStreamException(MessageFormat.format("Patch {0} must have valid checksums.", fileName),
+					rdr.getLocation());
+		return new Patch(intern(strings, requiredAttr(rdr, "fromVersion")), fromSha256, fileName, base,
+				Long.parseLong(requiredAttr(rdr, "fileSize")), sha256);
+	}
+
+	static String toHex(byte[] hash) {
+		if (hash == null)
+			return null;
+		var chars = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			chars[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+			chars[i * 2 + 1] = HEX[hash[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+
+	private static byte[] fromHex(String fileName, String hex) {
+		if (hex == null || hex.isEmpty())
+			return null;
+		try {
+			return fromHex(hex);
+		} catch (IllegalArgumentException iae) {
+			Logging.warn("Ignoring invalid checksum {0} for {1} in descriptor.", hex, fileName);
+			return null;
+		}
+	}
+
+	static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0)
+			throw new IllegalArgumentException(MessageFormat.format("Invalid checksum {0}.", hex));
+		var hash = new byte[hex.length() / 2];
+		for (int i = 0; i < hash.length; i++) {
+			var hi = Character.digit(hex.charAt(i * 2), 16);
+			var lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if (hi == -1 || lo == -1)
+				throw new IllegalArgumentException(MessageFormat.format("Invalid checksum {0}.", hex));
+			hash[i] = (byte) ((hi << 4) | lo);
+		}
+		return hash;
+	}
+
+	private static String intern(Map<String, String> strings, String str) {
+		if (str == null)
+			return null;
+		var existing = strings.putIfAbsent(str, str);
+		return existing == null ? str : existing;
+	}
+
+	private static boolean isCandidate(MediaKey wanted, MediaKey key) {
+		return key.os() == wanted.os() && key.type() == wanted.type()
+				&& (key.arch() == wanted.arch() || key.arch() == MediaArch.XPLATFORM)
+				&& (wanted.variant() == null || wanted.variant().equals(key.variant()));
+	}
+
+	private static String requiredAttr(XMLStreamReader rdr, String name) throws XMLStreamException {
+		var val = rdr.getAttributeValue(null, name);
+		if (val == null)
+			throw new XMLStreamException(MessageFormat.format("Missing attribute {0} on {1}.", name, rdr.getLocalName()),
+					rdr.getLocation());
+		return val;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		var factory = XMLInputFactory.newDefaultFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
 	}
 
 }
@@ -92,6 +92,21 @@ public interface UpdateService {
 	public interface DownloadListener {
 		void downloadEvent(DownloadEvent event);
 	}
+
+	/**
+	 * Supplied by the host application to tell background downloads about the
+	 * network connection.
+	 */
+	@FunctionalInterface
+	public interface ConnectionPolicy {
+		/**
+		 * Get whether the connection is currently metered (e.g. mobile data), in
+		 * which case {@link UpdateService#isPrefetch() prefetching} is paused.
+		 *
+		 * @return metered
+		 */
+		boolean isMetered();
+	}
 	
 	UpdateableAppContext getContext();
 	
@@ -125,4 +140,67 @@ public interface UpdateService {
 	void setOnAvailableVersion(Consumer<String> onAvailableVersion);
 
 	void setOnBusy(Consumer<Boolean> busy);
+
+	/**
+	 * Get the maximum rate at which update media is downloaded.
+	 *
+	 * @return bytes per second, or zero for unlimited
+	 */
+	default long getDownloadRate() {
+		return 0;
+	}
+
+	/**
+	 * Set the maximum rate at which update media is downloaded, e.g. to download
+	 * slowly in the background. Takes effect immediately, including for any
+	 * download in progress.
+	 *
+	 * @param downloadRate bytes per second, or zero for unlimited
+	 */
+	default void setDownloadRate(long downloadRate) {
+	}
+
+	/**
+	 * Get whether media for an available update is downloaded in the background
+	 * as soon as a check finds it, so that {@link #update()} can start
+	 * installing straight away.
+	 *
+	 * @return prefetch
+	 */
+	default boolean isPrefetch() {
+		return false;
+	}
+
+	/**
+	 * Set whether media for an available update is downloaded in the background
+	 * as soon as a check finds it. Not all services support this.
+	 *
+	 * @param prefetch prefetch
+	 */
+	default void setPrefetch(boolean prefetch) {
+	}
+
+	/**
+	 * Set the policy that decides when prefetching must pause.
+	 *
+	 * @param policy policy
+	 */
+	default void setConnectionPolicy(ConnectionPolicy policy) {
+	}
+
+	/**
+	 * Get whether media is currently being prefetched (including while paused).
+	 *
+	 * @return prefetching
+	 */
+	default boolean isPrefetching() {
+		return false;
+	}
+
+	/**
+	 * Stop any prefetch in progress. Whatever has been downloaded so far is kept,
+	 * and will be resumed by the next prefetch or update.
+	 */
+	default void cancelPrefetch() {
+	}
 }
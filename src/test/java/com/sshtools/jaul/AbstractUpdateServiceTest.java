@@ -0,0 +1,154 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AbstractUpdateServiceTest {
+
+	private ScheduledExecutorService scheduler;
+	private TestService service;
+	private AtomicBoolean metered;
+
+	@BeforeEach
+	void setup() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		service = new TestService(new TestContext(scheduler));
+		metered = new AtomicBoolean();
+		service.setConnectionPolicy(metered::get);
+		service.setPrefetch(true);
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.shutdown();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	void prefetchStartsAfterCheck() throws Exception {
+		service.checkForUpdate();
+
+		assertTrue(service.started.await(10, TimeUnit.SECONDS));
+		assertEquals("2.0", service.prefetched);
+	}
+
+	@Test
+	void prefetchIsSkippedWhenMetered() throws Exception {
+		metered.set(true);
+
+		service.checkForUpdate();
+
+		/* Waits for the connection to change, without downloading anything */
+		assertTrue(service.isPrefetching());
+		assertFalse(service.started.await(500, TimeUnit.MILLISECONDS));
+		assertEquals(0, service.prefetches.get());
+	}
+
+	@Test
+	void prefetchIsPausedWhenConnectionBecomesMetered() throws Exception {
+		service.checkForUpdate();
+		assertTrue(service.started.await(10, TimeUnit.SECONDS));
+
+		metered.set(true);
+
+		assertTrue(service.stopped.await(10, TimeUnit.SECONDS));
+		/* Paused rather than cancelled, so still waiting to resume */
+		assertTrue(service.isPrefetching());
+		assertEquals(1, service.prefetches.get());
+	}
+
+	private final static class TestService extends AbstractUpdateService {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch stopped = new CountDownLatch(1);
+		private final AtomicInteger prefetches = new AtomicInteger();
+		private volatile String prefetched;
+
+		private TestService(UpdateableAppContext context) {
+			super(context);
+		}
+
+		@Override
+		protected String doUpdate(boolean check) throws IOException {
+			return "2.0";
+		}
+
+		@Override
+		protected void doPrefetch(String version, Downloader.Progress progress)
+				throws IOException, InterruptedException {
+			prefetches.incrementAndGet();
+			prefetched = version;
+			started.countDown();
+			try {
+				/* A download that reports progress until it is stopped */
+				while (true) {
+					progress.progress(0, 100);
+					if (Thread.interrupted())
+						throw new InterruptedException();
+					Thread.sleep(10);
+				}
+			} finally {
+				stopped.countDown();
+			}
+		}
+	}
+
+	private final static class TestContext implements UpdateableAppContext {
+		private final ScheduledExecutorService scheduler;
+		private long deferredUntil;
+
+		private TestContext(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+		}
+
+		@Override
+		public ScheduledExecutorService getScheduler() {
+			return scheduler;
+		}
+
+		@Override
+		public boolean isAutomaticUpdates() {
+			return false;
+		}
+
+		@Override
+		public void setAutomaticUpdates(boolean automaticUpdates) {
+		}
+
+		@Override
+		public Phase getPhase() {
+			return Phase.STABLE;
+		}
+
+		@Override
+		public void setPhase(Phase phase) {
+		}
+
+		@Override
+		public long getUpdatesDeferredUntil() {
+			return deferredUntil;
+		}
+
+		@Override
+		public void setUpdatesDeferredUntil(long timeMs) {
+			deferredUntil = timeMs;
+		}
+
+		@Override
+		public String getVersion() {
+			return "1.0";
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.AppRegistry.App;
+import com.sshtools.jaul.AppRegistry.Scope;
+
+public class AppRegistryTest {
+
+	@TempDir
+	Path tmp;
+
+	private MapBackend backend;
+	private AppRegistry registry;
+
+	@BeforeEach
+	void setup() {
+		backend = new MapBackend();
+		registry = new AppRegistry(backend);
+	}
+
+	@Test
+	void snapshotIsKeptUntilRegistryChanges() throws Exception {
+		put(backend, Scope.USER, "a", install("a"), "1");
+		var snapshot = registry.snapshot();
+		assertEquals(List.of("a"), ids(snapshot.getApps(Optional.of(Scope.USER))));
+
+		/* Changes are checked for at most once a second */
+		Thread.sleep(1100);
+		assertSame(snapshot, registry.snapshot());
+
+		put(backend, Scope.USER, "b", install("b"), "1");
+		Thread.sleep(1100);
+		var changed = registry.snapshot();
+		assertNotSame(snapshot, changed);
+		assertEquals(List.of("a", "b"), ids(changed.getApps(Optional.of(Scope.USER))));
+	}
+
+	@Test
+	void refreshRebuildsSnapshotAndForgetsResolvedApps() throws Exception {
+		put(backend, Scope.USER, "a", install("a"), "1");
+		var snapshot = registry.snapshot();
+		var app = registry.get("a");
+		assertSame(app, registry.get("a"));
+
+		put(backend, Scope.USER, "a", install("a"), "2");
+
+		assertNotSame(snapshot, registry.refresh());
+		assertEquals("2", registry.get("a").getLauncherId());
+	}
+
+	@Test
+	void userAppTakesPrecedence() throws Exception {
+		put(backend, Scope.SYSTEM, "a", install("a"), "system");
+		assertEquals("system", registry.get("a").getLauncherId());
+
+		put(backend, Scope.USER, "a", install("a"), "user");
+		registry.refresh();
+
+		assertEquals("user", registry.get("a").getLauncherId());
+		assertThrows(IllegalStateException.class, () -> registry.get("missing"));
+	}
+
+	@Test
+	void uninstalledAppIsRemoved() throws Exception {
+		var dir = install("a");
+		put(backend, Scope.USER, "a", dir, "1");
+		put(backend, Scope.SYSTEM, "b", install("b"), "1");
+		assertEquals(List.of("a"), ids(registry.getApps(Optional.of(Scope.USER))));
+
+		Files.delete(dir.resolve(".install4j").resolve("i4jparams.conf"));
+
+		var snapshot = registry.refresh();
+		assertEquals(List.of(), ids(snapshot.getApps(Optional.of(Scope.USER))));
+		assertEquals(List.of("b"), ids(snapshot.getApps(Optional.of(Scope.SYSTEM))));
+		assertEquals(List.of(), backend.list(Scope.USER));
+	}
+
+	@Test
+	void appIsFoundThroughSymlinkedDirectory() throws Exception {
+		var real = install("real");
+		var link = tmp.resolve("link");
+		try {
+			Files.createSymbolicLink(link, real);
+		} catch (UnsupportedOperationException | IOException e) {
+			assumeTrue(false, "Symbolic links are not supported");
+		}
+		var other = install("other");
+		var otherLink = tmp.resolve("other-link");
+		Files.createSymbolicLink(otherLink, other);
+
+		/* Registered by the link, looked up by the real directory, and the other way round */
+		put(backend, Scope.USER, "a", link, "1");
+		put(backend, Scope.USER, "b", other, "1");
+
+		assertEquals("a", registry.get(real).getId());
+		assertEquals("a", registry.get(link).getId());
+		assertEquals("b", registry.get(otherLink).getId());
+		assertEquals("b", registry.get(other.resolve(".install4j").resolve("..")).getId());
+		assertThrows(IllegalStateException.class, () -> registry.get(tmp));
+	}
+
+	@Test
+	void appRegisteredSinceSnapshotIsFoundByDirectory() throws Exception {
+		var snapshot = registry.snapshot();
+		var dir = install("a");
+
+		put(backend, Scope.USER, "a", dir, "1");
+
+		assertEquals("a", registry.get(dir).getId());
+		assertNotSame(snapshot, registry.snapshot());
+	}
+
+	private Path install(String name) throws IOException {
+		var dir = tmp.resolve(name);
+		Files.createDirectories(dir.resolve(".install4j"));
+		Files.writeString(dir.resolve(".install4j").resolve("i4jparams.conf"), "");
+		return dir;
+	}
+
+	private static List<String> ids(List<App> apps) {
+		return apps.stream().map(App::getId).sorted().collect(Collectors.toList());
+	}
+
+	static void put(RegistryBackend backend, Scope scope, String id, Path dir, String launcherId)
+			throws IOException {
+		backend.put(scope, id, Map.of("id", id, "appDir", dir.toString(), "launcherId", launcherId));
+	}
+
+	/** Keeps entries in memory, with a stamp that changes on every change */
+	static final class MapBackend implements RegistryBackend {
+		private final Map<Scope, Map<String, Map<String, String>>> entries = new ConcurrentHashMap<>();
+		private final AtomicLong stamp = new AtomicLong();
+
+		@Override
+		public List<String> list(Scope scope) {
+			return new ArrayList<>(scope(scope).keySet());
+		}
+
+		@Override
+		public Optional<Map<String, String>> get(Scope scope, String id) {
+			return Optional.ofNullable(scope(scope).get(id));
+		}
+
+		@Override
+		public void put(Scope scope, String id, Map<String, String> properties) {
+			scope(scope).put(id, properties);
+			stamp.incrementAndGet();
+		}
+
+		@Override
+		public boolean remove(Scope scope, String id) {
+			var removed = scope(scope).remove(id) != null;
+			stamp.incrementAndGet();
+			return removed;
+		}
+
+		@Override
+		public void flush(Scope scope) {
+		}
+
+		@Override
+		public Object stamp() {
+			return stamp.get();
+		}
+
+		private Map<String, Map<String, String>> scope(Scope scope) {
+			return entries.computeIfAbsent(scope, k -> new ConcurrentHashMap<>());
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DeltaPatchTest {
+
+	@TempDir
+	Path tmp;
+
+	private byte[] base;
+
+	@BeforeEach
+	void setup() {
+		/* Random, so nothing is found by compression alone */
+		base = new byte[256 * 1024];
+		new Random(4).nextBytes(base);
+	}
+
+	@Test
+	void identicalBase() throws IOException {
+		var patch = roundTrip(base, base.clone());
+		assertTrue(patch.length < 1024, "Patch is " + patch.length + " bytes");
+	}
+
+	@Test
+	void emptyBase() throws IOException {
+		roundTrip(new byte[0], base);
+	}
+
+	@Test
+	void emptyTarget() throws IOException {
+		roundTrip(base, new byte[0]);
+	}
+
+	@Test
+	void appendedTail() throws IOException {
+		var tail = new byte[10000];
+		new Random(5).nextBytes(tail);
+		var target = Arrays.copyOf(base, base.length + tail.length);
+		System.arraycopy(tail, 0, target, base.length, tail.length);
+
+		var patch = roundTrip(base, target);
+		assertTrue(patch.length < tail.length + 1024, "Patch is " + patch.length + " bytes");
+	}
+
+	@Test
+	void changedBlockInMiddle() throws IOException {
+		var target = base.clone();
+		for (var i = 0; i < 100; i++)
+			target[base.length / 2 + i] ^= 0xff;
+
+		var patch = roundTrip(base, target);
+		assertTrue(patch.length < 16 * 1024, "Patch is " + patch.length + " bytes");
+	}
+
+	@Test
+	void insertedBytesShiftTheRest() throws IOException {
+		var target = new byte[base.length + 3];
+		System.arraycopy(base, 0, target, 0, 1000);
+		target[1000] = 1;
+		target[1001] = 2;
+		target[1002] = 3;
+		System.arraycopy(base, 1000, target, 1003, base.length - 1000);
+
+		var patch = roundTrip(base, target);
+		assertTrue(patch.length < 16 * 1024, "Patch is " + patch.length + " bytes");
+	}
+
+	@Test
+	void truncatedPatchIsRejected() throws IOException {
+		var target = base.clone();
+		target[0]++;
+		var patch = create(base, target);
+
+		for (var len : new int[] { 0, 3, 6, patch.length / 2, patch.length - 1 }) {
+			assertThrows(IOException.class, () -> apply(base, Arrays.copyOf(patch, len)), "Length " + len);
+		}
+	}
+
+	@Test
+	void corruptPatchIsRejected() throws IOException {
+		var target = base.clone();
+		target[0]++;
+		var patch = create(base, target);
+
+		var badMagic = patch.clone();
+		badMagic[0] = 'X';
+		assertThrows(IOException.class, () -> apply(base, badMagic));
+
+		var badVersion = patch.clone();
+		badVersion[4] = 99;
+		assertThrows(IOException.class, () -> apply(base, badVersion));
+
+		var badOps = patch.clone();
+		for (var i = patch.length / 2; i < patch.length; i++)
+			badOps[i] ^= 0x55;
+		assertThrows(IOException.class, () -> apply(base, badOps));
+	}
+
+	@Test
+	void wrongBaseIsRejected() throws IOException {
+		var target = base.clone();
+		target[0]++;
+		var patch = create(base, target);
+
+		assertThrows(IOException.class, () -> apply(Arrays.copyOf(base, base.length - 1), patch));
+	}
+
+	private byte[] roundTrip(byte[] base, byte[] target) throws IOException {
+		var patch = create(base, target);
+		assertArrayEquals(target, apply(base, patch));
+		return patch;
+	}
+
+	private byte[] create(byte[] base, byte[] target) throws IOException {
+		var basePath = Files.write(Files.createTempFile(tmp, "base", ".dat"), base);
+		var targetPath = Files.write(Files.createTempFile(tmp, "target", ".dat"), target);
+		var out = new ByteArrayOutputStream();
+		DeltaPatch.create(basePath, targetPath, out);
+		return out.toByteArray();
+	}
+
+	private byte[] apply(byte[] base, byte[] patch) throws IOException {
+		var basePath = Files.write(Files.createTempFile(tmp, "base", ".dat"), base);
+		var out = new ByteArrayOutputStream();
+		DeltaPatch.apply(basePath, new ByteArrayInputStream(patch), out);
+		return out.toByteArray();
+	}
+}
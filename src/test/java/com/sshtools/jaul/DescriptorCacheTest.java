@@ -0,0 +1,232 @@
+package com.sshtools.jaul;
+
+import static com.sshtools.jaul.UpdateDescriptorTest.XML;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+
+public class DescriptorCacheTest {
+
+	@TempDir
+	Path tmp;
+
+	private TestServer server;
+	private DescriptorCache cache;
+
+	@BeforeEach
+	void setup() throws IOException {
+		server = new TestServer();
+		cache = new DescriptorCache(tmp);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.close();
+	}
+
+	@Test
+	void unchangedDescriptorIsRevalidatedAndReused() throws IOException {
+		server.handle("/updates.xml", exchange -> {
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				TestServer.send(exchange, 200, XML.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		var uri = server.uri("/updates.xml");
+
+		var first = cache.descriptor(uri);
+		var second = cache.descriptor(uri);
+		assertSame(first, second);
+		assertEquals(3, second.getMediaUrls().size());
+
+		var requests = server.requests("/updates.xml");
+		assertEquals(2, requests.size());
+		assertNull(requests.get(0).header("If-None-Match"));
+		assertEquals("\"v1\"", requests.get(1).header("If-None-Match"));
+		/* Body and metadata are both staged through temporary files */
+		try (var files = Files.list(tmp)) {
+			assertFalse(files.anyMatch(f -> f.getFileName().toString().endsWith(".tmp")));
+		}
+
+		/* The copy on disk is used by a new cache too */
+		var fetched = new DescriptorCache(tmp).fetch(uri);
+		assertTrue(fetched.notModified());
+		assertEquals(3, new UpdateDescriptor(fetched.open()).getMediaUrls().size());
+	}
+
+	@Test
+	void gzipEncodedDescriptorIsKeptCompressed() throws IOException {
+		encodedDescriptor("gzip");
+	}
+
+	@Test
+	void deflateEncodedDescriptorIsKeptCompressed() throws IOException {
+		encodedDescriptor("deflate");
+	}
+
+	private void encodedDescriptor(String encoding) throws IOException {
+		server.handle("/updates.xml", exchange -> {
+			var accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			var body = new ByteArrayOutputStream();
+			if (accepted != null && accepted.contains(encoding)) {
+				exchange.getResponseHeaders().set("Content-Encoding", encoding);
+				try (var out = encoding.equals("gzip") ? new GZIPOutputStream(body) : new DeflaterOutputStream(body)) {
+					out.write(XML.getBytes(StandardCharsets.UTF_8));
+				}
+			} else {
+				body.write(XML.getBytes(StandardCharsets.UTF_8));
+			}
+			TestServer.send(exchange, 200, body.toByteArray());
+		});
+		var uri = server.uri("/updates.xml");
+
+		var fetched = cache.fetch(uri);
+		assertEquals(encoding, fetched.encoding().get());
+		assertFalse(Files.readString(fetched.path(), StandardCharsets.ISO_8859_1).contains("updateDescriptor"));
+		assertEquals(XML, Files.readString(cache.plainFile(uri)));
+		assertEquals(3, cache.descriptor(uri).getMediaUrls().size());
+	}
+
+	@Test
+	void asyncDescriptorIsStoredAsItIsParsed() throws IOException {
+		server.handle("/updates.xml", exchange -> {
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			var body = new ByteArrayOutputStream();
+			try (var out = new GZIPOutputStream(body)) {
+				out.write(XML.getBytes(StandardCharsets.UTF_8));
+			}
+			exchange.getResponseHeaders().set("ETag", "\"v1\"");
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			TestServer.send(exchange, 200, body.toByteArray());
+		});
+		var uri = server.uri("/updates.xml");
+		var key = new MediaKey(MediaOS.LINUX, MediaArch.X86_64, MediaType.INSTALLER, null);
+
+		/* Stops parsing at the first entry, but stores the whole descriptor */
+		var desc = cache.descriptorAsync(uri, key).join();
+		assertEquals("app-linux-x64-1.0.sh", desc.find(key).get().name());
+		assertEquals(XML, Files.readString(cache.plainFile(uri)));
+
+		var full = cache.descriptorAsync(uri).join();
+		assertEquals(3, full.getMediaUrls().size());
+		assertSame(full, cache.descriptor(uri));
+		assertTrue(cache.fetch(uri).notModified());
+	}
+
+	@Test
+	void binaryDescriptorIsPreferred() throws IOException {
+		var binary = binary();
+		serveXml();
+		server.handle("/updates.bin", exchange -> TestServer.send(exchange, 200, binary));
+		var uri = server.uri("/updates.xml");
+
+		assertEquals(3, cache.descriptor(uri).getMediaUrls().size());
+		assertEquals(1, server.requests("/updates.bin").size());
+		assertEquals(0, server.requests("/updates.xml").size());
+	}
+
+	@Test
+	void truncatedBinaryDescriptorFallsBackToXml() throws IOException {
+		var binary = binary();
+		binaryFallsBackToXml(200, Arrays.copyOf(binary, binary.length / 2));
+	}
+
+	@Test
+	void newerBinaryDescriptorFallsBackToXml() throws IOException {
+		binaryFallsBackToXml(200, new byte[] { 'J', 'A', 'U', 'L', 99, 0, 0, 0 });
+	}
+
+	@Test
+	void missingBinaryDescriptorIsNotAskedForAgain() throws IOException {
+		missingBinaryDescriptor(404);
+	}
+
+	@Test
+	void forbiddenBinaryDescriptorIsNotAskedForAgain() throws IOException {
+		missingBinaryDescriptor(403);
+	}
+
+	private void missingBinaryDescriptor(int status) throws IOException {
+		serveXml();
+		server.handle("/updates.bin", exchange -> exchange.sendResponseHeaders(status, -1));
+		var uri = server.uri("/updates.xml");
+
+		assertEquals(3, cache.descriptor(uri).getMediaUrls().size());
+		assertEquals(3, cache.descriptor(uri).getMediaUrls().size());
+		assertEquals(1, server.requests("/updates.bin").size());
+		assertEquals(2, server.requests("/updates.xml").size());
+	}
+
+	private void binaryFallsBackToXml(int status, byte[] binary) throws IOException {
+		serveXml();
+		server.handle("/updates.bin", exchange -> TestServer.send(exchange, status, binary));
+		var uri = server.uri("/updates.xml");
+
+		assertEquals(3, cache.descriptor(uri).getMediaUrls().size());
+		assertEquals(3, cache.descriptorAsync(uri).join().getMediaUrls().size());
+		/* Only the server saying so means there is no binary descriptor, so it is tried every time */
+		assertEquals(2, server.requests("/updates.bin").size());
+		assertEquals(2, server.requests("/updates.xml").size());
+	}
+
+	private void serveXml() {
+		server.handle("/updates.xml", exchange -> TestServer.send(exchange, 200, XML.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static byte[] binary() throws IOException {
+		var out = new ByteArrayOutputStream();
+		BinaryDescriptor.write(new UpdateDescriptor(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8))), out);
+		return out.toByteArray();
+	}
+
+	@Test
+	void changedDescriptorIsDownloadedAgain() throws IOException {
+		var version = new int[] { 1 };
+		server.handle("/updates.xml", exchange -> {
+			var etag = "\"v" + version[0] + "\"";
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				exchange.getResponseHeaders().set("ETag", etag);
+				TestServer.send(exchange, 200,
+						XML.replace("newVersion=\"1.0\"", "newVersion=\"" + version[0] + ".0\"").getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		var uri = server.uri("/updates.xml");
+
+		var first = cache.descriptor(uri);
+		version[0] = 2;
+		var fetched = cache.fetch(uri);
+		assertFalse(fetched.notModified());
+		var second = cache.descriptor(uri);
+		assertEquals("2.0", second.getMediaUrls().values().iterator().next().version());
+		assertEquals("1.0", first.getMediaUrls().values().iterator().next().version());
+	}
+}
@@ -0,0 +1,230 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DownloadCacheTest {
+
+	@TempDir
+	Path tmp;
+
+	private TestServer server;
+	private byte[] content;
+	private String sha256;
+
+	@BeforeEach
+	void setup() throws IOException {
+		server = new TestServer();
+		content = new byte[64 * 1024];
+		new Random(3).nextBytes(content);
+		sha256 = DownloaderTest.sha256(content);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.close();
+	}
+
+	@Test
+	void concurrentDownloadsOfSameMediaDownloadOnce() throws Exception {
+		var started = new CountDownLatch(1);
+		server.handle("/app.sh", exchange -> {
+			started.countDown();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			TestServer.send(exchange, 200, content);
+		});
+		var cache = new DownloadCache(tmp, DownloadCache.DEFAULT_BUDGET);
+		var executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Path> first = executor
+					.submit(() -> cache.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1)));
+			started.await();
+			Future<Path> second = executor
+					.submit(() -> cache.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1)));
+
+			assertEquals(first.get(), second.get());
+			assertArrayEquals(content, Files.readAllBytes(first.get()));
+			assertEquals(1, server.requests("/app.sh").size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void instancesForSameDirectoryShareLocks() throws Exception {
+		var started = new CountDownLatch(1);
+		server.handle("/app.sh", exchange -> {
+			started.countDown();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			TestServer.send(exchange, 200, content);
+		});
+		var executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Path> first = executor.submit(() -> new DownloadCache(tmp, DownloadCache.DEFAULT_BUDGET)
+					.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1)));
+			started.await();
+			/* Would fail to lock the file already locked by the first */
+			Future<Path> second = executor.submit(() -> new DownloadCache(tmp, DownloadCache.DEFAULT_BUDGET)
+					.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1)));
+
+			assertEquals(first.get(), second.get());
+			assertEquals(1, server.requests("/app.sh").size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void mediaThatCannotBeEvictedIsKept() throws Exception {
+		var other = content.clone();
+		other[0]++;
+		server.handle("/app.sh", exchange -> TestServer.send(exchange, 200, content));
+		server.handle("/other.sh", exchange -> TestServer.send(exchange, 200, other));
+		var cache = new DownloadCache(tmp, DownloadCache.DEFAULT_BUDGET);
+		var path = cache.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1));
+
+		/* As if still in use, e.g. an installer running on Windows */
+		var entryDir = path.getParent();
+		assumeTrue(entryDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+		var permissions = Files.getPosixFilePermissions(entryDir);
+		Files.setPosixFilePermissions(entryDir, PosixFilePermissions.fromString("r-xr-xr-x"));
+		try {
+			assumeFalse(Files.isWritable(entryDir), "Permissions are not enforced, e.g. running as root");
+			cache.setBudget(1);
+
+			var otherPath = cache.download(server.uri("/other.sh"), "other.sh", DownloaderTest.sha256(other),
+					b -> b.withSegments(1));
+
+			assertEquals(path, cache.lookup(sha256).get());
+			assertEquals(otherPath, cache.lookup(DownloaderTest.sha256(other)).get());
+		} finally {
+			Files.setPosixFilePermissions(entryDir, permissions);
+		}
+	}
+
+	@Test
+	void changedMediaFailsVerification() throws Exception {
+		server.handle("/app.sh", exchange -> TestServer.send(exchange, 200, content));
+		var cache = new DownloadCache(tmp, DownloadCache.DEFAULT_BUDGET);
+		var path = cache.download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1));
+		DownloadCache.verify(path, sha256);
+
+		/* Same size and modification time, so the cache still trusts it */
+		var modified = Files.getLastModifiedTime(path);
+		var changed = content.clone();
+		changed[0]++;
+		Files.write(path, changed);
+		Files.setLastModifiedTime(path, modified);
+
+		assertEquals(path, cache.lookup(sha256).get());
+		assertThrows(IOException.class, () -> DownloadCache.verify(path, sha256));
+	}
+
+	@Test
+	void onlyStalePartialDownloadsAreRemoved() throws Exception {
+		server.handle("/app.sh", exchange -> TestServer.send(exchange, 200, content));
+		var old = FileTime.from(Instant.now().minus(Duration.ofDays(3)));
+		var stale = file(tmp.resolve("aaaa").resolve("old.sh.part"), old);
+		var staleMeta = file(tmp.resolve("aaaa").resolve("old.sh.part.properties"), old);
+		var recent = file(tmp.resolve("bbbb").resolve("new.sh.part"), FileTime.from(Instant.now()));
+		var unverified = file(tmp.resolve("unverified").resolve("other.sh"), old);
+		var other = file(tmp.resolve("cccc").resolve("other.dat"), old);
+
+		/* Over budget, so evicts and sweeps */
+		new DownloadCache(tmp, 1).download(server.uri("/app.sh"), "app.sh", sha256, b -> b.withSegments(1));
+
+		assertFalse(Files.exists(stale));
+		assertFalse(Files.exists(staleMeta));
+		assertFalse(Files.exists(stale.getParent()));
+		assertTrue(Files.exists(recent));
+		assertTrue(Files.exists(unverified));
+		assertTrue(Files.exists(other));
+	}
+
+	@Test
+	void mediaIsRebuiltFromPatch() throws Exception {
+		var target = content.clone();
+		target[100]++;
+		serve("/app.jdelta", patch(content, target));
+		var cache = new DownloadCache(tmp.resolve("cache"), DownloadCache.DEFAULT_BUDGET);
+
+		var rebuilt = cache.rebuild(base(), server.uri("/app.jdelta"), DownloaderTest.sha256(patch(content, target)),
+				"app.sh", DownloaderTest.sha256(target), b -> b.withSegments(1));
+
+		assertArrayEquals(target, Files.readAllBytes(rebuilt));
+		assertEquals(rebuilt, cache.lookup(DownloaderTest.sha256(target)).get());
+	}
+
+	@Test
+	void rebuiltMediaWithWrongChecksumIsDiscarded() throws Exception {
+		var target = content.clone();
+		target[100]++;
+		var patch = patch(content, target);
+		serve("/app.jdelta", patch);
+		var cache = new DownloadCache(tmp.resolve("cache"), DownloadCache.DEFAULT_BUDGET);
+		/* What the patch produces is not what was asked for */
+		var wrong = DownloaderTest.sha256(content);
+
+		assertThrows(IOException.class, () -> cache.rebuild(base(), server.uri("/app.jdelta"),
+				DownloaderTest.sha256(patch), "app.sh", wrong, b -> b.withSegments(1)));
+
+		assertTrue(cache.lookup(wrong).isEmpty());
+		try (var files = Files.walk(tmp.resolve("cache").resolve(wrong))) {
+			assertFalse(files.anyMatch(Files::isRegularFile));
+		}
+	}
+
+	private void serve(String path, byte[] body) {
+		server.handle(path, exchange -> TestServer.send(exchange, 200, body));
+	}
+
+	private Path base() throws IOException {
+		return Files.write(tmp.resolve("base.sh"), content);
+	}
+
+	private byte[] patch(byte[] base, byte[] target) throws IOException {
+		var basePath = Files.write(tmp.resolve("patch-base"), base);
+		var targetPath = Files.write(tmp.resolve("patch-target"), target);
+		var out = new ByteArrayOutputStream();
+		DeltaPatch.create(basePath, targetPath, out);
+		return out.toByteArray();
+	}
+
+	private static Path file(Path path, FileTime modified) throws IOException {
+		Files.createDirectories(path.getParent());
+		Files.write(path, new byte[] { 1 });
+		Files.setLastModifiedTime(path, modified);
+		return path;
+	}
+}
@@ -0,0 +1,122 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.sshtools.jaul.UpdateService.DownloadEvent;
+import com.sshtools.jaul.UpdateService.DownloadEvent.Type;
+
+public class DownloadEventDispatcherTest {
+
+	private final BlockingQueue<DownloadEvent> received = new LinkedBlockingQueue<>();
+	private final CountDownLatch blocked = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private DownloadEventDispatcher dispatcher;
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		dispatcher.close();
+	}
+
+	@Test
+	void queuedProgressIsReplacedByLatest() throws Exception {
+		dispatcher = new DownloadEventDispatcher(1000, this::blockOnStart);
+
+		dispatcher.dispatch(event(Type.START, 0, "a"));
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		for (var i = 1; i <= 100; i++) {
+			dispatcher.dispatch(event(Type.PROGRESS, i, "a"));
+		}
+		dispatcher.dispatch(event(Type.END, 100, "a"));
+		release.countDown();
+
+		assertNext(Type.START, 0);
+		assertNext(Type.PROGRESS, 100);
+		assertNext(Type.END, 100);
+		assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void unchangedProgressIsDropped() throws Exception {
+		dispatcher = new DownloadEventDispatcher(1000, received::add);
+
+		dispatcher.dispatch(event(Type.PROGRESS, 50, "a"));
+		assertNext(Type.PROGRESS, 50);
+		dispatcher.dispatch(event(Type.PROGRESS, 50, "a"));
+		dispatcher.dispatch(event(Type.END, 50, "a"));
+
+		assertNext(Type.END, 50);
+		assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void progressIsRateLimited() throws Exception {
+		dispatcher = new DownloadEventDispatcher(10, received::add);
+
+		dispatcher.dispatch(event(Type.PROGRESS, 1, "a"));
+		assertNext(Type.PROGRESS, 1);
+		var first = System.nanoTime();
+		dispatcher.dispatch(event(Type.PROGRESS, 2, "a"));
+		assertNext(Type.PROGRESS, 2);
+
+		/* No more than 10 a second, allowing for clock granularity */
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - first) >= 80);
+	}
+
+	@Test
+	void orderIsKeptAcrossClose() throws Exception {
+		dispatcher = new DownloadEventDispatcher(1000, this::blockOnStart);
+
+		dispatcher.dispatch(event(Type.START, 0, "a"));
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		dispatcher.dispatch(event(Type.PROGRESS, 50, "a"));
+		/* Discards the queued progress, but not the event being delivered */
+		dispatcher.close();
+		dispatcher.dispatch(event(Type.START, 0, "b"));
+		dispatcher.dispatch(event(Type.PROGRESS, 50, "b"));
+		Thread.sleep(100);
+		release.countDown();
+
+		assertEquals("a", assertNext(Type.START, 0).getMessage());
+		assertEquals("b", assertNext(Type.START, 0).getMessage());
+		assertEquals("b", assertNext(Type.PROGRESS, 50).getMessage());
+		assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	/* Delivers the first start event only once released, as a slow listener would */
+	private void blockOnStart(DownloadEvent event) {
+		if (event.getType() == Type.START && blocked.getCount() > 0) {
+			blocked.countDown();
+			while (release.getCount() > 0) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					/* Not stopped by close, as a listener busy elsewhere would not be */
+				}
+			}
+		}
+		received.add(event);
+	}
+
+	private DownloadEvent assertNext(Type type, long value) throws InterruptedException {
+		var event = received.poll(10, TimeUnit.SECONDS);
+		assertEquals(type, event.getType());
+		assertEquals(value, event.getValue());
+		return event;
+	}
+
+	private static DownloadEvent event(Type type, long value, String message) {
+		return new DownloadEvent(type, value, message, null);
+	}
+}
@@ -0,0 +1,246 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.Downloader.DownloaderBuilder;
+import com.sun.net.httpserver.HttpExchange;
+
+public class DownloaderTest {
+
+	private final static Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	@TempDir
+	Path tmp;
+
+	private TestServer server;
+	private byte[] content;
+
+	@BeforeEach
+	void setup() throws IOException {
+		server = new TestServer();
+		content = new byte[256 * 1024];
+		new Random(1).nextBytes(content);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.close();
+	}
+
+	@Test
+	void cutConnectionIsResumedWithRange() throws Exception {
+		/* Only the first response is cut */
+		var cuts = new AtomicInteger(1);
+		server.handle("/app.sh", exchange -> serve(exchange, content, "\"v1\"", cuts.getAndDecrement() > 0));
+		var target = tmp.resolve("app.sh");
+
+		DownloaderBuilder.builder(server.uri("/app.sh"), target).withSegments(1).withExpectedSize(content.length)
+				.withSha256Sum(sha256(content)).build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertFalse(Files.exists(tmp.resolve("app.sh.part")));
+		var requests = server.requests("/app.sh");
+		assertEquals(2, requests.size());
+		assertNull(requests.get(0).header("Range"));
+		assertResumed(requests.get(1).header("Range"), content);
+		assertEquals("\"v1\"", requests.get(1).header("If-Range"));
+	}
+
+	@Test
+	void partialDownloadIsResumedByNextDownload() throws Exception {
+		var cuts = new AtomicInteger(1);
+		server.handle("/app.sh", exchange -> serve(exchange, content, "\"v1\"", cuts.getAndDecrement() > 0));
+		var target = tmp.resolve("app.sh");
+		var builder = DownloaderBuilder.builder(server.uri("/app.sh"), target).withSegments(1).withRetries(0);
+
+		assertThrows(IOException.class, () -> builder.build().download());
+		var received = Files.size(tmp.resolve("app.sh.part"));
+		assertTrue(received > 0 && received <= content.length / 2);
+
+		builder.build().download();
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertEquals("bytes=" + received + "-", server.requests("/app.sh").get(1).header("Range"));
+	}
+
+	@Test
+	void changedFileIsDownloadedAgain() throws Exception {
+		var changed = content.clone();
+		changed[0]++;
+		var cuts = new AtomicInteger(1);
+		server.handle("/app.sh", exchange -> {
+			/* Changed after the first attempt, so If-Range will not match */
+			var first = cuts.getAndDecrement() > 0;
+			serve(exchange, first ? content : changed, first ? "\"v1\"" : "\"v2\"", first);
+		});
+		var target = tmp.resolve("app.sh");
+
+		DownloaderBuilder.builder(server.uri("/app.sh"), target).withSegments(1).build().download();
+
+		assertArrayEquals(changed, Files.readAllBytes(target));
+		assertEquals("\"v1\"", server.requests("/app.sh").get(1).header("If-Range"));
+	}
+
+	@Test
+	void checksumMismatchIsRejected() throws Exception {
+		server.handle("/app.sh", exchange -> serve(exchange, content, "\"v1\"", false));
+		var target = tmp.resolve("app.sh");
+		var wrong = content.clone();
+		wrong[0]++;
+
+		assertThrows(IOException.class, () -> DownloaderBuilder.builder(server.uri("/app.sh"), target).withSegments(1)
+				.withSha256Sum(sha256(wrong)).build().download());
+		assertFalse(Files.exists(target));
+		assertTrue(Files.notExists(tmp.resolve("app.sh.part")));
+	}
+
+	@Test
+	void largeFileIsDownloadedInSegments() throws Exception {
+		server.handle("/app.sh", exchange -> serve(exchange, content, "\"v1\"", false));
+		var target = tmp.resolve("app.sh");
+
+		segmented(target).build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertRecorded(target, content);
+		var requests = server.requests("/app.sh");
+		assertEquals("HEAD", requests.get(0).method());
+		assertEquals(Set.of("bytes=0-65535", "bytes=65536-131071", "bytes=131072-196607", "bytes=196608-262143"),
+				requests.subList(1, requests.size()).stream().map(r -> r.header("Range")).collect(Collectors.toSet()));
+		assertEquals(5, requests.size());
+	}
+
+	@Test
+	void failedSegmentIsResumedByNextDownload() throws Exception {
+		/* Only the first response for the second segment is cut */
+		var cuts = new AtomicInteger(1);
+		server.handle("/app.sh", exchange -> serve(exchange, content, "\"v1\"",
+				"bytes=65536-131071".equals(exchange.getRequestHeaders().getFirst("Range")) && cuts.getAndDecrement() > 0));
+		var target = tmp.resolve("app.sh");
+		var builder = segmented(target).withRetries(0);
+
+		assertThrows(IOException.class, () -> builder.build().download());
+		assertFalse(Files.exists(target));
+		var before = server.requests("/app.sh").size();
+
+		builder.build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertRecorded(target, content);
+		/* Only what is missing is asked for, from the same version of the file */
+		var requested = 0;
+		for (var request : server.requests("/app.sh").subList(before, server.requests("/app.sh").size())) {
+			assertEquals("GET", request.method());
+			assertEquals("\"v1\"", request.header("If-Range"));
+			var matcher = RANGE.matcher(request.header("Range"));
+			assertTrue(matcher.matches(), request.header("Range"));
+			requested += Integer.parseInt(matcher.group(2)) + 1 - Integer.parseInt(matcher.group(1));
+		}
+		assertTrue(requested > 0 && requested < content.length, "Requested " + requested + " bytes");
+	}
+
+	@Test
+	void serverIgnoringRangeIsDownloadedAsOneStream() throws Exception {
+		/* Claims to support ranges, but always sends the whole file */
+		server.handle("/app.sh", exchange -> {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().set("ETag", "\"v1\"");
+			TestServer.send(exchange, 200, content);
+		});
+		var target = tmp.resolve("app.sh");
+
+		segmented(target).build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertRecorded(target, content);
+		/* Segments stopped while in flight may still reach the server after the single stream */
+		var requests = server.requests("/app.sh");
+		assertTrue(requests.stream().anyMatch(r -> r.method().equals("GET") && r.header("Range") == null));
+		assertFalse(Files.exists(tmp.resolve("app.sh.part.properties")));
+	}
+
+	private DownloaderBuilder segmented(Path target) {
+		return DownloaderBuilder.builder(server.uri("/app.sh"), target).withSegments(4)
+				.withMinimumSegmentSize(content.length / 4).withSha256Sum(sha256(content));
+	}
+
+	private static void assertRecorded(Path target, byte[] content) throws IOException {
+		assertEquals(sha256(content) + "  " + target.getFileName(),
+				Files.readString(target.resolveSibling(target.getFileName() + ".sha256")).trim());
+	}
+
+	/**
+	 * Check a request resumes a cut response. Data in flight when the connection
+	 * is dropped may be lost, so the offset is at most half way.
+	 */
+	static void assertResumed(String range, byte[] content) {
+		var matcher = RANGE.matcher(range);
+		assertTrue(matcher.matches(), range);
+		var offset = Integer.parseInt(matcher.group(1));
+		assertTrue(offset > 0 && offset <= content.length / 2, range);
+		assertTrue(matcher.group(2).isEmpty(), range);
+	}
+
+	/**
+	 * Serve a file, honouring <code>Range</code> if <code>If-Range</code> matches,
+	 * optionally cutting the connection half way through the body.
+	 */
+	static void serve(HttpExchange exchange, byte[] content, String etag, boolean cut) throws IOException {
+		var headers = exchange.getResponseHeaders();
+		headers.set("ETag", etag);
+		headers.set("Accept-Ranges", "bytes");
+		var range = exchange.getRequestHeaders().getFirst("Range");
+		var ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		var matcher = range == null ? null : RANGE.matcher(range);
+		if (matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(etag))) {
+			var start = Integer.parseInt(matcher.group(1));
+			var end = matcher.group(2).isEmpty() ? content.length : Integer.parseInt(matcher.group(2)) + 1;
+			headers.set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + content.length);
+			send(exchange, 206, Arrays.copyOfRange(content, start, end), cut);
+		} else {
+			send(exchange, 200, content, cut);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body, boolean cut) throws IOException {
+		if (exchange.getRequestMethod().equals("HEAD") || !cut) {
+			TestServer.send(exchange, status, body);
+			return;
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		var out = exchange.getResponseBody();
+		out.write(body, 0, body.length / 2);
+		out.flush();
+		/* Closing the exchange with the body incomplete drops the connection */
+		throw new IOException("Cut connection.");
+	}
+
+	static String sha256(byte[] content) {
+		try {
+			return UpdateDescriptor.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.install4j.api.Util;
+import com.sshtools.jaul.AppRegistry.Scope;
+
+public class FileRegistryBackendTest {
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	void changesAreKeptAcrossReopen() throws Exception {
+		var file = tmp.resolve("user.dat");
+		/* Each file is only opened once in a runtime, so another process is used for the other side */
+		run(Client.class, file.toString(), "+a=1", "+b=2", "-a", "+c=3");
+
+		var backend = backend(file);
+		assertEquals(Set.of("b", "c"), new HashSet<>(backend.list(Scope.USER)));
+		assertEquals(Optional.of(Map.of("value", "2")), backend.get(Scope.USER, "b"));
+		assertFalse(backend.get(Scope.USER, "a").isPresent());
+
+		backend.put(Scope.USER, "d", Map.of("value", "4"));
+		assertTrue(backend.remove(Scope.USER, "c"));
+		assertFalse(backend.remove(Scope.USER, "c"));
+
+		assertEquals("{b=2, d=4}", run(Client.class, file.toString()));
+	}
+
+	@Test
+	void backendsForSameFileShareChanges() throws Exception {
+		var file = tmp.resolve("user.dat");
+		var first = backend(file);
+		var second = backend(tmp.resolve("other").resolve("..").resolve("user.dat"));
+
+		first.put(Scope.USER, "a", Map.of("value", "1"));
+		second.put(Scope.USER, "b", Map.of("value", "2"));
+
+		assertEquals(Set.of("a", "b"), new HashSet<>(first.list(Scope.USER)));
+		assertEquals(Set.of("a", "b"), new HashSet<>(second.list(Scope.USER)));
+	}
+
+	@Test
+	void compactionKeepsOnlyLatestEntries() throws Exception {
+		var file = tmp.resolve("user.dat");
+		var backend = backend(file);
+		var padding = "x".repeat(1000);
+		backend.put(Scope.USER, "other", Map.of("value", "0"));
+		for (var i = 0; i < 100; i++) {
+			backend.put(Scope.USER, "app", Map.of("value", i + padding));
+		}
+
+		/* Compacted once 16 KiB are wasted, so far smaller than the 100 KiB of replaced entries */
+		assertTrue(header(file).getLong(24) < 32 * 1024, "Log is " + header(file).getLong(24) + " bytes");
+		assertEquals("{app=99" + padding + ", other=0}", run(Client.class, file.toString()));
+	}
+
+	@Test
+	void corruptRecordIsSkipped() throws Exception {
+		var file = tmp.resolve("user.dat");
+		run(Client.class, file.toString(), "+a=1", "+b=2");
+		/* The last byte of the log is part of the value of b */
+		var header = header(file);
+		write(file, header.getLong(16) + header.getLong(24) - 1, new byte[] { 'X' });
+
+		assertLaterChangesAreKept(file);
+	}
+
+	@Test
+	void tornRecordIsSkipped() throws Exception {
+		var file = tmp.resolve("user.dat");
+		run(Client.class, file.toString(), "+a=1");
+		/* Only the start of a record, as if the header was updated before the rest was written */
+		var header = header(file);
+		var end = header.getLong(16) + header.getLong(24);
+		write(file, end, new byte[] { 0, 0, 0, 100, 1, 2 });
+		write(file, 24, ByteBuffer.allocate(8).putLong(end + 6 - header.getLong(16)).array());
+
+		assertLaterChangesAreKept(file);
+	}
+
+	@Test
+	void entriesAreMigratedFromPreferences() throws Exception {
+		var prefs = tmp.resolve("prefs");
+		var file = tmp.resolve("user.dat");
+		run(PreferencesRegistryBackendTest.Writer.class, List.of("-Djava.util.prefs.userRoot=" + prefs), "a", "1");
+		run(PreferencesRegistryBackendTest.Writer.class, List.of("-Djava.util.prefs.userRoot=" + prefs), "b", "2");
+
+		run(FileRegistryBackend.class, List.of("-Djava.util.prefs.userRoot=" + prefs, "-Djaul.userRegistry=" + file,
+				"-Djaul.systemRegistry=" + tmp.resolve("system.dat")), "user");
+
+		var backend = backend(file);
+		assertEquals(Set.of("a", "b"), new HashSet<>(backend.list(Scope.USER)));
+		assertEquals("2", backend.get(Scope.USER, "b").get().get("launcherId"));
+	}
+
+	private void assertLaterChangesAreKept(Path file) throws Exception {
+		var backend = backend(file);
+		assertEquals(List.of("a"), backend.list(Scope.USER));
+
+		backend.put(Scope.USER, "c", Map.of("value", "3"));
+		assertEquals("{a=1, c=3}", run(Client.class, file.toString()));
+	}
+
+	private FileRegistryBackend backend(Path file) {
+		return new FileRegistryBackend(file, tmp.resolve("system.dat"));
+	}
+
+	private static ByteBuffer header(Path file) throws IOException {
+		try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			var buf = ByteBuffer.allocate(32);
+			while (buf.hasRemaining() && ch.read(buf, buf.position()) != -1)
+				;
+			return buf.flip();
+		}
+	}
+
+	private static void write(Path file, long position, byte[] data) throws IOException {
+		try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			var buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining())
+				ch.write(buf, position + buf.position());
+		}
+	}
+
+	private static String run(Class<?> main, String... args) throws IOException, InterruptedException {
+		return run(main, List.of(), args);
+	}
+
+	private static String run(Class<?> main, List<String> properties, String... args)
+			throws IOException, InterruptedException {
+		var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		var classPath = String.join(File.pathSeparator, location(FileRegistryBackend.class),
+				location(FileRegistryBackendTest.class), location(Util.class));
+		var command = new ArrayList<String>();
+		command.add(java);
+		command.addAll(properties);
+		command.addAll(List.of("-cp", classPath, main.getName()));
+		command.addAll(Arrays.asList(args));
+		var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		assertEquals(0, process.waitFor());
+		return output.trim();
+	}
+
+	private static String location(Class<?> clazz) {
+		try {
+			return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Changes a user registry file from another process, <code>+id=value</code>
+	 * to put and <code>-id</code> to remove, then prints the values of all
+	 * entries.
+	 */
+	public final static class Client {
+		public static void main(String[] args) throws IOException {
+			var backend = new FileRegistryBackend(Paths.get(args[0]), Paths.get(args[0] + ".system"));
+			for (var arg : Arrays.asList(args).subList(1, args.length)) {
+				if (arg.startsWith("+")) {
+					var idx = arg.indexOf('=');
+					backend.put(Scope.USER, arg.substring(1, idx), Map.of("value", arg.substring(idx + 1)));
+				} else
+					backend.remove(Scope.USER, arg.substring(1));
+			}
+			var values = new TreeMap<String, String>();
+			for (var id : backend.list(Scope.USER)) {
+				values.put(id, backend.get(Scope.USER, id).get().get("value"));
+			}
+			System.out.println(values);
+		}
+	}
+}
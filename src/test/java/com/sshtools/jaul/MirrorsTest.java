@@ -0,0 +1,156 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.Downloader.DownloaderBuilder;
+import com.sun.net.httpserver.HttpExchange;
+
+public class MirrorsTest {
+
+	@TempDir
+	Path tmp;
+
+	private TestServer slow;
+	private TestServer fast;
+	private TestServer medium;
+	private byte[] content;
+
+	@BeforeEach
+	void setup() throws IOException {
+		slow = new TestServer();
+		fast = new TestServer();
+		medium = new TestServer();
+		content = new byte[128 * 1024];
+		new Random(2).nextBytes(content);
+		Mirrors.get().clear();
+	}
+
+	@AfterEach
+	void tearDown() {
+		slow.close();
+		fast.close();
+		medium.close();
+		Mirrors.get().clear();
+	}
+
+	@Test
+	void fastestServerIsFirst() {
+		slow.handle("/app.sh", exchange -> delayed(exchange, 400));
+		fast.handle("/app.sh", exchange -> delayed(exchange, 0));
+		medium.handle("/app.sh", exchange -> delayed(exchange, 200));
+		var mirrors = new Mirrors(Duration.ofHours(1), Duration.ofSeconds(5));
+		var locations = List.of(slow.uri("/app.sh"), medium.uri("/app.sh"), fast.uri("/app.sh"));
+
+		assertEquals(List.of(fast.uri("/app.sh"), medium.uri("/app.sh"), slow.uri("/app.sh")),
+				mirrors.rank(locations));
+
+		/* Rankings are kept, so the same servers are not probed again */
+		assertEquals(List.of(fast.uri("/app.sh"), medium.uri("/app.sh"), slow.uri("/app.sh")),
+				mirrors.rank(locations));
+		assertEquals(1, fast.requests("/app.sh").size());
+	}
+
+	@Test
+	void failingServerIsLast() {
+		fast.handle("/app.sh", exchange -> exchange.sendResponseHeaders(404, -1));
+		slow.handle("/app.sh", exchange -> delayed(exchange, 200));
+		var mirrors = new Mirrors(Duration.ofHours(1), Duration.ofSeconds(5));
+
+		assertEquals(List.of(slow.uri("/app.sh"), fast.uri("/app.sh")),
+				mirrors.rank(List.of(fast.uri("/app.sh"), slow.uri("/app.sh"))));
+	}
+
+	@Test
+	void probesDoNotReuseConnections() throws Exception {
+		fast.handle("/app.sh", exchange -> delayed(exchange, 0));
+		slow.handle("/app.sh", exchange -> delayed(exchange, 0));
+		var transport = HttpTransport.get();
+		transport.send(transport.request(fast.uri("/app.sh")).build(), BodyHandlers.discarding());
+
+		new Mirrors(Duration.ofHours(1), Duration.ofSeconds(5))
+				.rank(List.of(fast.uri("/app.sh"), slow.uri("/app.sh")));
+
+		var requests = fast.requests("/app.sh");
+		assertEquals(2, requests.size());
+		assertEquals("HEAD", requests.get(1).method());
+		assertNotEquals(requests.get(0).remote(), requests.get(1).remote());
+	}
+
+	@Test
+	void downloadFailsOverToMirror() throws Exception {
+		/* The fast server drops the connection half way, and then fails */
+		var attempts = new AtomicInteger();
+		fast.handle("/app.sh", exchange -> {
+			if (exchange.getRequestMethod().equals("HEAD"))
+				delayed(exchange, 0);
+			else if (attempts.getAndIncrement() == 0)
+				DownloaderTest.serve(exchange, content, "\"fast\"", true);
+			else
+				exchange.sendResponseHeaders(503, -1);
+		});
+		slow.handle("/app.sh", exchange -> {
+			if (exchange.getRequestMethod().equals("HEAD"))
+				delayed(exchange, 200);
+			else
+				DownloaderTest.serve(exchange, content, "\"slow\"", false);
+		});
+		var target = tmp.resolve("app.sh");
+
+		DownloaderBuilder.builder(fast.uri("/app.sh"), target).withMirrors(List.of(slow.uri("/app.sh")))
+				.withSegments(1).withSha256Sum(DownloaderTest.sha256(content)).build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		var mirrored = slow.requests("/app.sh").stream().filter(r -> r.method().equals("GET")).findFirst().get();
+		/* Continued from where the first server stopped, its validator means nothing to the mirror */
+		DownloaderTest.assertResumed(mirrored.header("Range"), content);
+		assertNull(mirrored.header("If-Range"));
+	}
+
+	@Test
+	void missingFileFailsOverToMirror() throws Exception {
+		fast.handle("/app.sh", exchange -> {
+			if (exchange.getRequestMethod().equals("HEAD"))
+				delayed(exchange, 0);
+			else
+				exchange.sendResponseHeaders(404, -1);
+		});
+		slow.handle("/app.sh", exchange -> {
+			if (exchange.getRequestMethod().equals("HEAD"))
+				delayed(exchange, 200);
+			else
+				DownloaderTest.serve(exchange, content, "\"slow\"", false);
+		});
+		var target = tmp.resolve("app.sh");
+
+		DownloaderBuilder.builder(fast.uri("/app.sh"), target).withMirrors(List.of(slow.uri("/app.sh")))
+				.withSegments(1).build().download();
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	private void delayed(HttpExchange exchange, long delay) throws IOException {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		TestServer.send(exchange, 200, content);
+	}
+}
@@ -0,0 +1,86 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.prefs.Preferences;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.AppRegistry.Scope;
+
+public class PreferencesRegistryBackendTest {
+
+	@TempDir
+	static Path prefs;
+
+	/* Must be set before preferences are first used */
+	@BeforeAll
+	static void setup() {
+		System.setProperty("java.util.prefs.userRoot", prefs.toString());
+		assumeTrue(Preferences.userRoot().getClass().getName().equals("java.util.prefs.FileSystemPreferences"),
+				"Preferences are not stored as files");
+	}
+
+	@Test
+	void changeByAnotherProcessIsListed() throws Exception {
+		var backend = new PreferencesRegistryBackend();
+		backend.put(Scope.USER, "app", Map.of("id", "app", "launcherId", "1"));
+		assertTrue(backend.list(Scope.USER).contains("app"));
+		assertEquals("1", backend.get(Scope.USER, "app").get().get("launcherId"));
+
+		write("app", "2");
+
+		assertTrue(backend.list(Scope.USER).contains("app"));
+		assertEquals("2", backend.get(Scope.USER, "app").get().get("launcherId"));
+	}
+
+	@Test
+	void stampChangesOnlyWithRegistry() throws Exception {
+		var backend = new PreferencesRegistryBackend();
+		backend.put(Scope.USER, "stamped", Map.of("id", "stamped", "launcherId", "1"));
+		backend.flush(Scope.USER);
+		var stamp = backend.stamp();
+		assertEquals(stamp, backend.stamp());
+
+		write("other", "1");
+
+		assertNotEquals(stamp, backend.stamp());
+	}
+
+	private static void write(String id, String launcherId) throws IOException, InterruptedException {
+		var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		var classPath = location(PreferencesRegistryBackend.class) + File.pathSeparator + location(Writer.class);
+		var process = new ProcessBuilder(List.of(java, "-Djava.util.prefs.userRoot=" + prefs, "-cp", classPath,
+				Writer.class.getName(), id, launcherId)).inheritIO().start();
+		assertEquals(0, process.waitFor());
+	}
+
+	private static String location(Class<?> clazz) {
+		try {
+			return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Registers an app from another process */
+	public final static class Writer {
+		public static void main(String[] args) throws IOException {
+			var backend = new PreferencesRegistryBackend();
+			backend.put(Scope.USER, args[0], Map.of("id", args[0], "launcherId", args[1]));
+			backend.flush(Scope.USER);
+		}
+	}
+}
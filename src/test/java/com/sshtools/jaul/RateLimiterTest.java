@@ -0,0 +1,76 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+	private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final AtomicLong clock = new AtomicLong();
+
+	@Test
+	void debtIsRepaidAtRate() throws Exception {
+		var limiter = new RateLimiter(1000, clock::get);
+
+		/* Starts empty, so a second's worth of data takes a second to repay */
+		var acquired = acquire(limiter, 1000);
+		clock.addAndGet(SECOND / 2);
+		assertWaiting(acquired);
+		clock.addAndGet(SECOND / 2 - 1);
+		assertWaiting(acquired);
+		clock.addAndGet(1);
+		acquired.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void burstIsLimitedToOneSecond() throws Exception {
+		var limiter = new RateLimiter(1000, clock::get);
+
+		/* Idle for a long time, but only a second's worth is saved up */
+		clock.addAndGet(SECOND * 10);
+		limiter.acquire(1000);
+		var acquired = acquire(limiter, 100);
+		assertWaiting(acquired);
+		clock.addAndGet(SECOND / 10);
+		acquired.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void rateChangeWakesWaiters() throws Exception {
+		var limiter = new RateLimiter(1000, clock::get);
+
+		var acquired = acquire(limiter, 1000);
+		assertWaiting(acquired);
+		limiter.setRate(0);
+		acquired.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void unlimitedNeverWaits() throws Exception {
+		var limiter = new RateLimiter(0, clock::get);
+
+		limiter.acquire(Integer.MAX_VALUE);
+		limiter.acquire(Integer.MAX_VALUE);
+	}
+
+	private static CompletableFuture<Void> acquire(RateLimiter limiter, int bytes) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				limiter.acquire(bytes);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private static void assertWaiting(CompletableFuture<Void> acquired) {
+		assertThrows(TimeoutException.class, () -> acquired.get(100, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,181 @@
+package com.sshtools.jaul;
+
+import static com.sshtools.jaul.AppRegistryTest.put;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sshtools.jaul.AppRegistry.RegistryEvent;
+import com.sshtools.jaul.AppRegistry.RegistryEvent.Type;
+import com.sshtools.jaul.AppRegistry.RegistryListener;
+import com.sshtools.jaul.AppRegistry.Scope;
+
+public class RegistryWatcherTest {
+
+	@TempDir
+	Path tmp;
+
+	private final BlockingQueue<RegistryEvent> received = new LinkedBlockingQueue<>();
+
+	private FileRegistryBackend backend;
+	private RegistryWatcher watcher;
+
+	@BeforeEach
+	void setup() throws IOException {
+		Files.createDirectories(tmp.resolve("registry"));
+		backend = new FileRegistryBackend(tmp.resolve("registry").resolve("user.dat"),
+				tmp.resolve("registry").resolve("system.dat"));
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (watcher != null)
+			watcher.close();
+	}
+
+	@Test
+	void changesAreDelivered() throws Exception {
+		var dir = install("a");
+		watcher = new RegistryWatcher(new AppRegistry(backend), 100, received::add);
+		watcher.start();
+
+		put(backend, Scope.USER, "a", dir, "1");
+		assertNext(Type.ADDED, "a");
+
+		put(backend, Scope.USER, "a", dir, "2");
+		assertEquals("2", assertNext(Type.CHANGED, "a").getApp().getLauncherId());
+
+		backend.remove(Scope.USER, "a");
+		assertNext(Type.REMOVED, "a");
+		assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void existingAppsAreNotDelivered() throws Exception {
+		put(backend, Scope.USER, "a", install("a"), "1");
+		watcher = new RegistryWatcher(new AppRegistry(backend), 100, received::add);
+		watcher.start();
+
+		put(backend, Scope.USER, "b", install("b"), "1");
+
+		assertNext(Type.ADDED, "b");
+		assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void burstOfChangesIsDeliveredOnceItStops() throws Exception {
+		var dirs = List.of(install("a"), install("b"), install("c"));
+		watcher = new RegistryWatcher(new AppRegistry(backend), 500, received::add);
+		watcher.start();
+
+		for (var i = 0; i < dirs.size(); i++) {
+			if (i > 0)
+				Thread.sleep(200);
+			put(backend, Scope.USER, dirs.get(i).getFileName().toString(), dirs.get(i), "1");
+		}
+		var last = System.nanoTime();
+
+		var ids = new ArrayList<String>();
+		for (var i = 0; i < dirs.size(); i++) {
+			var event = received.poll(10, TimeUnit.SECONDS);
+			assertEquals(Type.ADDED, event.getType());
+			ids.add(event.getApp().getId());
+			/* Nothing is delivered until no changes have arrived for the delay, allowing for clock granularity */
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - last) >= 400);
+		}
+		Collections.sort(ids);
+		assertEquals(List.of("a", "b", "c"), ids);
+	}
+
+	@Test
+	void registryIsNotLockedWhileStarting() throws Exception {
+		var blocking = new BlockingBackend();
+		var registry = new AppRegistry(blocking);
+		RegistryListener listener = received::add;
+		var adding = CompletableFuture.runAsync(() -> registry.addRegistryListener(listener));
+		try {
+			assertTrue(blocking.listing.await(10, TimeUnit.SECONDS));
+
+			/* Would wait for the registry to be read if that was done while locked */
+			CompletableFuture.runAsync(() -> registry.removeRegistryListener(e -> {
+			})).get(10, TimeUnit.SECONDS);
+		} finally {
+			blocking.release.countDown();
+			adding.get(10, TimeUnit.SECONDS);
+			registry.removeRegistryListener(listener);
+		}
+	}
+
+	private RegistryEvent assertNext(Type type, String id) throws InterruptedException {
+		var event = received.poll(10, TimeUnit.SECONDS);
+		assertEquals(type, event.getType());
+		assertEquals(id, event.getApp().getId());
+		return event;
+	}
+
+	private Path install(String name) throws IOException {
+		var dir = tmp.resolve(name);
+		Files.createDirectories(dir.resolve(".install4j"));
+		Files.writeString(dir.resolve(".install4j").resolve("i4jparams.conf"), "");
+		return dir;
+	}
+
+	/** Blocks while listing the registry until released */
+	private final static class BlockingBackend implements RegistryBackend {
+		private final CountDownLatch listing = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public List<String> list(Scope scope) throws IOException {
+			listing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return List.of();
+		}
+
+		@Override
+		public Optional<Map<String, String>> get(Scope scope, String id) {
+			return Optional.empty();
+		}
+
+		@Override
+		public void put(Scope scope, String id, Map<String, String> properties) {
+		}
+
+		@Override
+		public boolean remove(Scope scope, String id) {
+			return false;
+		}
+
+		@Override
+		public void flush(Scope scope) {
+		}
+
+		@Override
+		public Object stamp() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StagingTest {
+
+	@TempDir
+	Path tmp;
+
+	private byte[] content;
+
+	@BeforeEach
+	void setup() {
+		content = new byte[100 * 1024];
+		new Random(6).nextBytes(content);
+	}
+
+	@Test
+	void moveReplacesTargetWithoutCopying() throws IOException {
+		var source = Files.write(tmp.resolve("app.sh.part"), content);
+		var target = Files.write(tmp.resolve("app.sh"), new byte[] { 1, 2, 3 });
+		var copied = Staging.getBytesCopied();
+
+		assertEquals(target, Staging.move(source, target));
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertFalse(Files.exists(source));
+		assertEquals(copied, Staging.getBytesCopied());
+	}
+
+	@Test
+	void copyReplacesTargetAndKeepsModificationTime() throws IOException {
+		var source = Files.write(tmp.resolve("app.sh.part"), content);
+		var modified = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+		Files.setLastModifiedTime(source, modified);
+		var target = Files.write(tmp.resolve("app.sh"), new byte[] { 1, 2, 3 });
+		var copied = Staging.getBytesCopied();
+
+		assertEquals(target, Staging.copy(source, target));
+
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertArrayEquals(content, Files.readAllBytes(source));
+		assertEquals(modified.toMillis(), Files.getLastModifiedTime(target).toMillis());
+		assertFalse(Files.exists(tmp.resolve("app.sh.staging")));
+		assertEquals(copied + content.length, Staging.getBytesCopied());
+	}
+
+	@Test
+	void moveToAnotherFileSystemCopies() throws IOException {
+		/* Usually a different file system to the temporary directory on Linux */
+		var shm = Paths.get("/dev/shm");
+		assumeTrue(Files.isDirectory(shm) && Files.isWritable(shm));
+		assumeTrue(!Files.getFileStore(shm).equals(Files.getFileStore(tmp)), "Not a different file system");
+
+		var dir = Files.createTempDirectory(shm, "staging");
+		try {
+			var source = Files.write(tmp.resolve("app.sh.part"), content);
+			var target = Files.write(dir.resolve("app.sh"), new byte[] { 1, 2, 3 });
+			var copied = Staging.getBytesCopied();
+
+			assertEquals(target, Staging.move(source, target));
+
+			assertArrayEquals(content, Files.readAllBytes(target));
+			assertFalse(Files.exists(source));
+			assertFalse(Files.exists(dir.resolve("app.sh.staging")));
+			assertEquals(copied + content.length, Staging.getBytesCopied());
+		} finally {
+			Files.deleteIfExists(dir.resolve("app.sh"));
+			Files.delete(dir);
+		}
+	}
+}
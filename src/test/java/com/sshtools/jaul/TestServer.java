@@ -0,0 +1,101 @@
+package com.sshtools.jaul;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server for tests, recording every request it receives. Paths
+ * without a handler get a 404.
+ */
+final class TestServer implements AutoCloseable {
+
+	final static class Request {
+		private final String method;
+		private final String path;
+		private final Headers headers;
+		private final InetSocketAddress remote;
+
+		private Request(HttpExchange exchange) {
+			remote = exchange.getRemoteAddress();
+			method = exchange.getRequestMethod();
+			path = exchange.getRequestURI().getPath();
+			headers = new Headers();
+			headers.putAll(exchange.getRequestHeaders());
+		}
+
+		String method() {
+			return method;
+		}
+
+		String path() {
+			return path;
+		}
+
+		String header(String name) {
+			return headers.getFirst(name);
+		}
+
+		/* Identifies the connection the request arrived on */
+		InetSocketAddress remote() {
+			return remote;
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+	TestServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	void handle(String path, HttpHandler handler) {
+		server.createContext(path, exchange -> {
+			requests.add(new Request(exchange));
+			try {
+				handler.handle(exchange);
+			} finally {
+				exchange.close();
+			}
+		});
+	}
+
+	URI uri(String path) {
+		return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+				+ server.getAddress().getPort() + path);
+	}
+
+	List<Request> requests(String path) {
+		return requests.stream().filter(r -> r.path().equals(path)).collect(Collectors.toList());
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+			exchange.sendResponseHeaders(status, -1);
+		} else {
+			exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+			exchange.getResponseBody().write(body);
+		}
+	}
+}
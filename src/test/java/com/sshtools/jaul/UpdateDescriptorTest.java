@@ -0,0 +1,81 @@
+package com.sshtools.jaul;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.sshtools.jaul.UpdateDescriptor.MediaArch;
+import com.sshtools.jaul.UpdateDescriptor.MediaKey;
+import com.sshtools.jaul.UpdateDescriptor.MediaOS;
+import com.sshtools.jaul.UpdateDescriptor.MediaType;
+
+public class UpdateDescriptorTest {
+
+	final static String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<updateDescriptor baseUrl=\"https://example.com/dl/\">\n"
+			+ "  <entry fileName=\"app-linux-x64-1.0.sh\" newVersion=\"1.0\" fileSize=\"1000\" bundledJre=\"linux-amd64-17\"/>\n"
+			+ "  <entry fileName=\"app-windows-x64-1.0.msi\" newVersion=\"1.0\" fileSize=\"2000\" bundledJre=\"windows-x64-17\"/>\n"
+			+ "  <entry fileName=\"app-windows-x64-1.0.exe\" newVersion=\"1.0\" fileSize=\"2000\" bundledJre=\"windows-x64-17\"/>\n"
+			+ "</updateDescriptor>\n";
+
+	/* The msi comes before the exe in the document, but the exe is preferred */
+	private final static MediaKey WINDOWS = new MediaKey(MediaOS.WINDOWS, MediaArch.X86_64, MediaType.INSTALLER, null);
+
+	@Test
+	void keyWithoutVariantFindsPreferredVariant() throws IOException {
+		var full = new UpdateDescriptor(xml());
+		assertEquals("app-windows-x64-1.0.exe", full.find(WINDOWS).get().name());
+
+		assertEquals("app-windows-x64-1.0.exe", new UpdateDescriptor(xml(), WINDOWS).find(WINDOWS).get().name());
+		assertEquals("app-windows-x64-1.0.exe", BinaryDescriptor.read(binary(full), WINDOWS).find(WINDOWS).get().name());
+		assertEquals("app-windows-x64-1.0.exe", BinaryDescriptor.read(binary(full)).find(WINDOWS).get().name());
+	}
+
+	@Test
+	void keyWithVariantFindsThatVariant() throws IOException {
+		var msi = new MediaKey(MediaOS.WINDOWS, MediaArch.X86_64, MediaType.INSTALLER, "msi");
+		var full = new UpdateDescriptor(xml());
+		assertEquals("app-windows-x64-1.0.msi", full.find(msi).get().name());
+		assertEquals("app-windows-x64-1.0.msi", new UpdateDescriptor(xml(), msi).find(msi).get().name());
+		assertEquals("app-windows-x64-1.0.msi", BinaryDescriptor.read(binary(full), msi).find(msi).get().name());
+	}
+
+	@Test
+	void checksumsAreReturnedAsGiven() throws IOException {
+		var sha256 = "AB".repeat(32);
+		var desc = new UpdateDescriptor(new ByteArrayInputStream(("<updateDescriptor baseUrl=\"https://example.com/dl/\">"
+				+ "<entry fileName=\"app-linux-x64-1.0.sh\" fileSize=\"1\" bundledJre=\"linux-amd64-17\" md5Sum=\"xyz\" sha256Sum=\""
+				+ sha256 + "\"/>"
+				+ "<entry fileName=\"app-windows-x64-1.0.exe\" fileSize=\"1\" bundledJre=\"windows-x64-17\" sha256Sum=\""
+				+ sha256.toLowerCase() + "\"/>"
+				+ "</updateDescriptor>").getBytes(StandardCharsets.UTF_8)));
+
+		var linux = desc.find(new MediaKey(MediaOS.LINUX, MediaArch.X86_64, MediaType.INSTALLER, null)).get();
+		assertEquals(sha256, linux.sha256Sum());
+		assertEquals(sha256.toLowerCase(), UpdateDescriptor.toHex(linux.sha256()));
+		/* Invalid, so there are no bytes to check against */
+		assertEquals("xyz", linux.md5Sum());
+		assertNull(linux.md5());
+
+		var windows = desc.find(WINDOWS).get();
+		assertEquals(sha256.toLowerCase(), windows.sha256Sum());
+		assertNull(windows.md5Sum());
+	}
+
+	private static InputStream xml() {
+		return new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static InputStream binary(UpdateDescriptor descriptor) throws IOException {
+		var out = new ByteArrayOutputStream();
+		BinaryDescriptor.write(descriptor, out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+}